@@ -64,6 +64,18 @@ public final class Constants {
 	 * 
 	 */
 	public static final int NODE_DATA_BUFFER_NOTE = MAX_NOTES - 7;
+	/**
+	 * 
+	 */
+	public static final int TRIES_NOTE = MAX_NOTES - 8;
+	/**
+	 * 
+	 */
+	public static final int CHUNKED_BODY_PARSER_NOTE = MAX_NOTES - 9;
+	/**
+	 * 
+	 */
+	public static final int BODY_STREAMED_NOTE = MAX_NOTES - 10;
 
 	/**
 	 * 
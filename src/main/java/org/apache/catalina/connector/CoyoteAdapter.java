@@ -25,7 +25,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.catalina.http.ChunkedBodyParser;
 import org.apache.catalina.http.HttpResponseParser;
 import org.apache.coyote.Adapter;
 import org.apache.coyote.Request;
@@ -34,7 +36,6 @@ import org.apache.coyote.http11.AbstractHttp11Processor;
 import org.apache.coyote.http11.AbstractInternalInputBuffer;
 import org.apache.coyote.http11.AbstractInternalOutputBuffer;
 import org.apache.coyote.http11.InternalNioInputBuffer;
-import org.apache.coyote.http11.InternalNioOutputBuffer;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -75,6 +76,41 @@ public class CoyoteAdapter implements Adapter {
 	protected org.apache.tomcat.util.res.StringManager sm = org.apache.tomcat.util.res.StringManager
 			.getManager(Constants.PACKAGE);
 
+	/**
+	 * Completion handler of the node connection acquisition. Once a connection
+	 * is available, the request is sent to the node. If the node is
+	 * unreachable, another node is selected.
+	 */
+	private final CompletionHandler<NioChannel, Response> connectHandler = new CompletionHandler<NioChannel, Response>() {
+
+		@Override
+		public void completed(NioChannel nodeChannel, Response response) {
+			if (nodeChannel == null) {
+				// The connection limit is reached, the node is not failed
+				sendError(response.getRequest(), response);
+				return;
+			}
+
+			response.setNote(Constants.NODE_CHANNEL_NOTE, nodeChannel);
+			try {
+				sendToNode(response.getRequest(), response);
+			} catch (Throwable th) {
+				logger.error(th, th);
+				sendError(response.getRequest(), response);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, Response response) {
+			if (logger.isDebugEnabled()) {
+				logger.debug(exc, exc);
+			}
+			// The node is unreachable, try with another node
+			prepareNode(response.getRequest(), response,
+					(Node) response.getNote(Constants.NODE_NOTE));
+		}
+	};
+
 	/**
 	 * Create a new instance of {@code CoyoteAdapter}
 	 * <p>
@@ -113,8 +149,8 @@ public class CoyoteAdapter implements Adapter {
 	public void service(final Request request, Response response) throws Exception {
 
 		if (prepare(request, response)) {
-			// Send the request to the selected node
-			sendToNode(request, response);
+			// Select a node and send the request to it once connected
+			prepareNode(request, response, null);
 		} else {
 			sendError(request, response);
 		}
@@ -133,9 +169,43 @@ public class CoyoteAdapter implements Adapter {
 				logger.debug(e, e);
 			}
 		} finally {
+			// The exchange with the node failed, so the state of the node
+			// connection is unknown and it can not be reused
 			NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
 			Node node = (Node) response.getNote(Constants.NODE_NOTE);
-			this.connector.getConnectionManager().recycle(node, nodeChannel);
+			this.connector.getConnectionManager().close(node, nodeChannel);
+			response.setNote(Constants.NODE_CHANNEL_NOTE, null);
+			releaseNode(response);
+		}
+	}
+
+	/**
+	 * Abort the exchange once a part of the node response was relayed to the
+	 * client: the response can neither be repeated nor replaced by an error,
+	 * so both the node and the client connections are closed.
+	 * 
+	 * @param response
+	 */
+	private void abort(Response response) {
+		NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
+		Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		this.connector.getConnectionManager().close(node, nodeChannel);
+		response.setNote(Constants.NODE_CHANNEL_NOTE, null);
+		releaseNode(response);
+		((AbstractHttp11Processor<?>) response.hook).closeSocket();
+	}
+
+	/**
+	 * Detach the node from the response and update its number of requests in
+	 * flight. This method does nothing if no node is attached.
+	 * 
+	 * @param response
+	 */
+	private void releaseNode(final org.apache.coyote.Response response) {
+		Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		if (node != null) {
+			response.setNote(Constants.NODE_NOTE, null);
+			node.decrementInFlight();
 		}
 	}
 
@@ -197,92 +267,123 @@ public class CoyoteAdapter implements Adapter {
 	}
 
 	/**
+	 * Read the response from the node and relay it to the client. The bytes
+	 * are read in a pooled buffer which is handed over as is to the client
+	 * channel, and a fresh pooled buffer receives the next bytes, so that the
+	 * body of the response is never copied.
 	 * 
-	 * @param params
+	 * @param request
+	 * @param response
 	 */
 	private void readFromNode(final org.apache.coyote.Request request,
 			final org.apache.coyote.Response response) throws Exception {
 
 		final NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
-		final ByteBuffer buffer = (ByteBuffer) response.getNote(Constants.OUT_BUFFER_NOTE);
-		buffer.clear();
+		final AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) response
+				.getOutputBuffer();
+
+		final ByteBuffer firstBuffer = outputBuffer.takeBuffer();
 
 		// Read bytes from node.
-		nodeChannel.read(buffer, response,
+		nodeChannel.read(firstBuffer, response,
 				new CompletionHandler<Integer, org.apache.coyote.Response>() {
 
 					private long contentLength = 0;
+					private final long start = System.nanoTime();
+					private long ttfb = 0;
+					private boolean recorded = false;
+					// The buffer receiving the bytes read from the node
+					private ByteBuffer buffer = firstBuffer;
 
 					@Override
 					public void completed(Integer nBytes, Response attachment) {
+						ByteBuffer buff = this.buffer;
 						if (nBytes < 0) {
 							failed(new ClosedChannelException(), attachment);
 						} else if (nBytes > 0) {
+							if (contentLength == 0) {
+								// First bytes of the response
+								Node node = (Node) attachment.getNote(Constants.NODE_NOTE);
+								ttfb = (System.nanoTime() - start) / 1000;
+								if (node != null) {
+									node.updateTtfb(ttfb);
+									if (node.getCircuitBreaker().onSuccess(
+											System.currentTimeMillis())) {
+										logger.info("New available node <" + node.getHostname()
+												+ ":" + node.getPort() + ">");
+										connector.getConnectionManager().prewarm(node);
+									}
+								}
+							}
 							contentLength += nBytes;
-							ByteBuffer buff = (ByteBuffer) response
-									.getNote(Constants.OUT_BUFFER_NOTE);
 							buff.flip();
 
-							AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) attachment
-									.getOutputBuffer();
-
 							// Parse the HTTP Header
 							HttpResponseParser httpResponseParser = attachment.getResponseParser();
 
-							byte data[] = outputBuffer.getBytes();
-							buff.get(data, 0, nBytes);
-
 							if (httpResponseParser.parsingHeader()) {
-								httpResponseParser.parse(attachment, data, nBytes);
+								// The parser reads the bytes in place, they
+								// are relayed untouched
+								httpResponseParser.parse(attachment, buff);
+							}
+							if (!recorded && !httpResponseParser.parsingHeader()) {
+								// The status of the response is known
+								recorded = true;
+								Node node = (Node) attachment.getNote(Constants.NODE_NOTE);
+								if (node != null) {
+									node.getStats().onResponse(System.currentTimeMillis(),
+											attachment.getStatus(), ttfb);
+								}
+							}
+
+							// Check whether we finish receiving the response
+							boolean finished = false;
+							if (!httpResponseParser.parsingHeader()) {
+								if (attachment.getRequest().method().equals("HEAD")) {
+									finished = true;
+								} else if (attachment.isChunked()) {
+									// The body bytes of this read follow the
+									// header
+									int bodyLength = (int) Math.min(nBytes, this.contentLength
+											- httpResponseParser.getHeaderLength());
+									finished = httpResponseParser.getChunkedBodyParser().parse(
+											buff, buff.limit() - bodyLength);
+								} else {
+									finished = this.contentLength >= attachment.getContentLength()
+											+ httpResponseParser.getHeaderLength();
+								}
 							}
 
 							outputBuffer.setContentLength(attachment.getContentLengthLong()
 									+ httpResponseParser.getHeaderLength());
-							buff.clear();
-							outputBuffer.writeToClient(outputBuffer.getBytes(), 0, nBytes);
+							// Hand the buffer over to the client channel and
+							// read the next bytes in a fresh buffer
+							this.buffer = outputBuffer.takeBuffer();
+							outputBuffer.writeToClient(buff);
+							buff = this.buffer;
 
-							final NioChannel n_ch = (NioChannel) response
-									.getNote(Constants.NODE_CHANNEL_NOTE);
-							if (httpResponseParser.parsingHeader()) {
-								// If the header is not completely received,
-								// read again
+							if (!finished) {
+								// Need to read again
+								final NioChannel n_ch = (NioChannel) response
+										.getNote(Constants.NODE_CHANNEL_NOTE);
 								n_ch.read(buff, attachment, this);
 								return;
 							}
 
-							String method = attachment.getRequest().method().toString();
-							// Check whether we finish receiving the response
-							boolean finished = "HEAD".equals(method);
-
-							if (!finished
-									&& (this.contentLength < attachment.getContentLength()
-											+ httpResponseParser.getHeaderLength())) {
-								// Need to read again
-								n_ch.read(buff, attachment, this);
+							// The response is finished
+							release();
+							AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) attachment.hook;
+							boolean error = httpResponseParser.getChunkedBodyParser().isError();
+							// Before the response is recycled with the headers
+							// decoded by the parser
+							recycleNodeChannel(attachment);
+							processor.endRequest();
+							processor.nextRequest();
+							if (processor.isKeepAlive() && !error) {
+								processor.awaitNext();
 							} else {
-								finished = true;
-							}
-
-							// If the response is finished
-							if (finished) {
-								AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) attachment.hook;
-								boolean chunked = attachment.isChunked();
-								processor.endRequest();
-								processor.nextRequest();
-								if (chunked) {
-									((InternalNioOutputBuffer) outputBuffer)
-											.configChunked(nodeChannel);
-								} else {
-									if (processor.isKeepAlive()) {
-										processor.awaitNext();
-									} else {
-										processor.closeSocket();
-									}
-									Node node = (Node) attachment.getNote(Constants.NODE_NOTE);
-									connector.getConnectionManager().recycle(node, n_ch);
-								}
+								processor.closeSocket();
 							}
-
 						}
 					}
 
@@ -291,6 +392,19 @@ public class CoyoteAdapter implements Adapter {
 						if (logger.isDebugEnabled()) {
 							logger.debug(exc, exc);
 						}
+						release();
+						if (contentLength > 0) {
+							// The node reset the connection in the middle of
+							// the response
+							Node node = (Node) attachment.getNote(Constants.NODE_NOTE);
+							if (node != null) {
+								node.getStats().onReset(System.currentTimeMillis());
+							}
+							// A part of the response was already relayed to
+							// the client, it can not be repeated
+							abort(attachment);
+							return;
+						}
 
 						try {
 							// Try to repeat the request if it is allowed
@@ -300,9 +414,54 @@ public class CoyoteAdapter implements Adapter {
 							t.printStackTrace();
 						}
 					}
+
+					/**
+					 * Give back to the pool the buffer which was not handed
+					 * over to the client channel
+					 */
+					private void release() {
+						if (this.buffer != null) {
+							outputBuffer.releaseBuffer(this.buffer);
+							this.buffer = null;
+						}
+					}
 				});
 	}
 
+	/**
+	 * Recycle the node connection once the response is completely received.
+	 * The connection is closed if the node asked for it with the
+	 * <tt>Connection: close</tt> header or if the <tt>Keep-Alive</tt> header
+	 * announces that no more requests are allowed, or if the chunked body of
+	 * the response is malformed. Else the <tt>Keep-Alive</tt>
+	 * timeout is passed to the pool so that the connection is not reused after
+	 * the node closed it.
+	 * 
+	 * @param response
+	 */
+	private void recycleNodeChannel(final org.apache.coyote.Response response) {
+		NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
+		Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		response.setNote(Constants.NODE_CHANNEL_NOTE, null);
+		releaseNode(response);
+
+		HttpResponseParser httpResponseParser = response.getResponseParser();
+		if (httpResponseParser.isConnectionClose() || httpResponseParser.getKeepAliveMax() == 0
+				|| httpResponseParser.getChunkedBodyParser().isError()) {
+			this.connector.getConnectionManager().close(node, nodeChannel);
+			return;
+		}
+
+		long keepAliveTimeout = -1;
+		if (httpResponseParser.getKeepAliveTimeout() >= 0) {
+			// Keep a margin of one second to avoid races with the node
+			// closing the connection
+			keepAliveTimeout = Math.max(0, httpResponseParser.getKeepAliveTimeout() * 1000 - 1000);
+		}
+
+		this.connector.getConnectionManager().recycle(node, nodeChannel, keepAliveTimeout);
+	}
+
 	/**
 	 * Prepare the request for processing
 	 * 
@@ -314,76 +473,107 @@ public class CoyoteAdapter implements Adapter {
 			final org.apache.coyote.Response response) throws Exception {
 
 		postParseRequest(request, response);
-		if (!prepareNode(request, response, null)) {
-			// If prepare node fails, return false
-			return false;
-		}
+		// Clear the notes of the previous request
+		releaseNode(response);
+		response.setNote(Constants.NODE_CHANNEL_NOTE, null);
+		response.setNote(Constants.TRIES_NOTE, null);
+		response.setNote(Constants.BODY_STREAMED_NOTE, null);
 
 		// Client request
 		AbstractInternalInputBuffer inputBuffer = (AbstractInternalInputBuffer) request
 				.getInputBuffer();
 
+		// The request is forwarded to the node as read from the client,
+		// without copying it, up to the end of its body. The bytes following
+		// the body are the beginning of the next pipelined request and are
+		// kept for it.
 		final ByteBuffer inBuffer = (ByteBuffer) inputBuffer.getByteBuffer();
 		inBuffer.clear();
-
-		// Client response
-		AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) response
-				.getOutputBuffer();
-		final ByteBuffer outBuffer = (ByteBuffer) outputBuffer.getByteBuffer().clear();
-
-		// Put data to forward to the node in the byte buffer
-		inBuffer.put(inputBuffer.getBuffer(), 0, inputBuffer.getLastValid()).flip();
+		inBuffer.limit(inputBuffer.getLastValid());
+		int requestEnd = inputBuffer.getEnd();
+		ChunkedBodyParser chunkedBodyParser = null;
+		MessageBytes transferEncoding = request.getMimeHeaders().getValue("transfer-encoding");
+		if (transferEncoding != null && transferEncoding.indexOf("chunked") != -1) {
+			chunkedBodyParser = new ChunkedBodyParser();
+			requestEnd = chunkedBodyParser.parse(inBuffer, requestEnd)
+					&& chunkedBodyParser.isDone() ? chunkedBodyParser.getEnd() : inputBuffer
+					.getLastValid();
+		} else if (request.getContentLengthLong() > 0) {
+			requestEnd = (int) Math.min(requestEnd + request.getContentLengthLong(),
+					inputBuffer.getLastValid());
+		}
+		inBuffer.limit(requestEnd);
+		inputBuffer.setPosition(requestEnd);
+		// The body is relayed by the adapter, not consumed by the filters
+		inputBuffer.setSwallowInput(false);
+		response.setNote(Constants.CHUNKED_BODY_PARSER_NOTE, chunkedBodyParser);
 
 		NioChannel clientChannel = ((InternalNioInputBuffer) inputBuffer).getChannel();
 
 		// Put relevant elements in the map attachment
 
 		response.setNote(Constants.IN_BUFFER_NOTE, inBuffer);
-		response.setNote(Constants.OUT_BUFFER_NOTE, outBuffer);
 		response.setNote(Constants.CLIENT_CHANNEL_NOTE, clientChannel);
 
 		return true;
 	}
 
 	/**
+	 * Select a node for the request and acquire asynchronously a connection to
+	 * it. The request is sent by the {@link #connectHandler} once the
+	 * connection is established, or an error is sent to the client if there is
+	 * no node available or if the request was already tried
+	 * {@link Constants#MAX_TRIES} times.
 	 * 
 	 * @param request
 	 * @param response
-	 * @throws Exception
+	 * @param failedNode
+	 *            the node which has failed, or <tt>null</tt>
 	 */
-	private boolean prepareNode(final org.apache.coyote.Request request,
-			final org.apache.coyote.Response response, Node failedNode) throws Exception {
-
-		Node node = null;
+	private void prepareNode(final org.apache.coyote.Request request,
+			final org.apache.coyote.Response response, Node failedNode) {
 
-		// If there is no active node or the get node returns null
-		if ((node = this.connector.getNodeService().getNode(request, failedNode)) == null) {
-			return false;
+		releaseNode(response);
+		if (!nextTry(response)) {
+			// Give up instead of walking through all the nodes
+			this.connector.getNodeService().failedNode(failedNode);
+			sendError(request, response);
+			return;
 		}
-
-		NioChannel nodeChannel = null;
-		try {
-			nodeChannel = this.connector.getConnectionManager().getChannel(node);
-			if (nodeChannel == null) {
-				throw new NullPointerException("Null node channel");
-			}
-		} catch (Throwable th) {
-			if (logger.isDebugEnabled()) {
-				logger.debug(th, th);
-			}
-
-			return prepareNode(request, response, node);
+		Node node = this.connector.getNodeService().getNode(request, failedNode);
+		// If there is no active node or the get node returns null
+		if (node == null) {
+			sendError(request, response);
+			return;
 		}
 
+		node.incrementInFlight();
 		response.setNote(Constants.NODE_NOTE, node);
-		response.setNote(Constants.NODE_CHANNEL_NOTE, nodeChannel);
+		this.connector.getConnectionManager().getChannel(node, response, this.connectHandler);
+	}
 
+	/**
+	 * Count a new try to send the request to a node
+	 * 
+	 * @param response
+	 * @return <tt>true</tt> if the request can be sent again, <tt>false</tt>
+	 *         if it was already tried {@link Constants#MAX_TRIES} times
+	 */
+	private boolean nextTry(final org.apache.coyote.Response response) {
+		Integer tries = (Integer) response.getNote(Constants.TRIES_NOTE);
+		int n = (tries == null) ? 1 : tries.intValue() + 1;
+		if (n > Constants.MAX_TRIES) {
+			return false;
+		}
+		response.setNote(Constants.TRIES_NOTE, Integer.valueOf(n));
 		return true;
 	}
 
 	/**
 	 * Check whether the request failure strategy allows to repeat the request
-	 * or not.
+	 * or not. A request whose body was partly read from the client by
+	 * {@link #doPost(Request, Response, ChunkedBodyParser)} is never repeated,
+	 * only the bytes received with its header are still available.
 	 * 
 	 * @param request
 	 *            the request
@@ -394,6 +584,13 @@ public class CoyoteAdapter implements Adapter {
 	private void tryRepeatRequest(final org.apache.coyote.Request request,
 			final org.apache.coyote.Response response) throws Exception {
 
+		if (response.getNote(Constants.BODY_STREAMED_NOTE) != null) {
+			// The body read from the client after the request header was
+			// not kept, the request can not be sent again
+			sendError(request, response);
+			return;
+		}
+
 		switch (this.connector.getRequestFailureStrategy()) {
 			case NO_REPEAT:
 				// Send error 503 to client
@@ -408,51 +605,46 @@ public class CoyoteAdapter implements Adapter {
 				}
 
 			case REPEAT_ALL:
-				try {
-					// try again with node
-					tryWithNode(request, response);
-					sendToNode(request, response);
-				} catch (Throwable e) {
-					// Send error 503 to client
-					sendError(request, response);
-				}
+				// try again with node
+				tryWithNode(request, response);
 				break;
 		}
 
 	}
 
 	/**
+	 * Close the current node connection and send the request again using a new
+	 * connection to the same node. If the node is unreachable, another node is
+	 * selected. Each new connection counts as a try of the request.
 	 * 
+	 * @param request
 	 * @param response
-	 * @throws Exception
 	 */
-	private void tryWithNode(org.apache.coyote.Request request, org.apache.coyote.Response response)
-			throws Exception {
+	private void tryWithNode(org.apache.coyote.Request request, org.apache.coyote.Response response) {
+		if (!nextTry(response)) {
+			sendError(request, response);
+			return;
+		}
+		// Forget what was parsed of the failed response, including the state
+		// of its chunked body
+		response.getResponseParser().recycle();
+		response.setContentLength(-1);
+		response.setTransferEncoding(null);
 		// Closing the current channel
 		NioChannel channel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
-		// close the channel
-		this.connector.getConnectionManager().close(channel);
 		// Retrieve the node
 		Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		// close the channel
+		this.connector.getConnectionManager().close(node, channel);
+		response.setNote(Constants.NODE_CHANNEL_NOTE, null);
 		// Try to retrieve another channel
-		try {
-			channel = this.connector.getConnectionManager().getChannel(node);
-			if (channel == null) {
-				throw new Exception("null node parameter");
-			}
-			response.setNote(Constants.NODE_CHANNEL_NOTE, channel);
-		} catch (Throwable t) {
-			// Node is unreachable
-			if (!prepareNode(request, response, node)) {
-				throw new Exception("No node available");
-			}
-		}
+		this.connector.getConnectionManager().getChannel(node, response, this.connectHandler);
 	}
 
 	/**
-	 * Check if the request has a body content (content-length a positive
-	 * integer). If body is not empty and the content length is less than
-	 * maximum post size then proceed to <tt>POST</tt> action.
+	 * Check if the request has a body content, either with a positive
+	 * content-length or with the chunked transfer encoding. If so, then
+	 * proceed to <tt>POST</tt> action.
 	 * 
 	 * 
 	 * @param request
@@ -465,102 +657,179 @@ public class CoyoteAdapter implements Adapter {
 	private boolean checkPostMethod(final org.apache.coyote.Request request,
 			final org.apache.coyote.Response response) throws Exception {
 
-		if (request.getContentLength() > 0) {
-			if (request.getContentLength() <= connector.getMaxPostSize()) {
-				doPost(request, response);
-				return true;
-			} else {
-				logger.warn("Parameters were not parsed because the size of the posted data was too big. "
-						+ "Use the maxPostSize attribute of the connector to resolve this if the "
-						+ "application should accept large POSTs.");
-			}
+		ChunkedBodyParser chunkedBodyParser = (ChunkedBodyParser) response
+				.getNote(Constants.CHUNKED_BODY_PARSER_NOTE);
+		if (chunkedBodyParser != null) {
+			doPost(request, response, chunkedBodyParser);
+			return true;
+		}
+		if (request.getContentLengthLong() > 0) {
+			doPost(request, response, null);
+			return true;
 		}
 		return false;
 	}
 
 	/**
-	 * If the request is a <tt>POST</tt>, then send request data before starting
-	 * reading from the node
+	 * If the request has a body, then stream it to the node before starting
+	 * reading from the node. The body is relayed through a single pooled
+	 * buffer: the next bytes are read from the client only once the previous
+	 * ones are written to the node, so that the memory used does not depend
+	 * on the size of the body and no thread is blocked during the upload.
 	 * 
 	 * @param request
 	 *            the request
 	 * @param response
 	 *            the corresponding response
+	 * @param chunkedBodyParser
+	 *            the parser detecting the end of a chunked body, or
+	 *            <tt>null</tt> if the length of the body is given by the
+	 *            content-length
 	 * @throws IOException
 	 */
-	private void doPost(final Request request, final Response response) throws Exception {
-
-		System.out.println(getClass().getName() + "#doPost(...)");
+	private void doPost(final Request request, final Response response,
+			final ChunkedBodyParser chunkedBodyParser) throws Exception {
 
 		final AbstractInternalInputBuffer inputBuffer = (AbstractInternalInputBuffer) request
 				.getInputBuffer();
+		final AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) response
+				.getOutputBuffer();
+		final NioChannel clientChannel = (NioChannel) response
+				.getNote(Constants.CLIENT_CHANNEL_NOTE);
 		final NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
 
-		int n = inputBuffer.getAvailable();
-		int lastValid = inputBuffer.getLastValid();
-		int end = inputBuffer.getEnd();
+		// The bytes of the body received with the request header were already
+		// parsed and sent to the node. The length of a chunked body is
+		// unknown.
+		final long length;
+		boolean complete;
+		if (chunkedBodyParser != null) {
+			length = -1;
+			complete = chunkedBodyParser.isDone() || chunkedBodyParser.isError();
+		} else {
+			length = request.getContentLengthLong()
+					- (inputBuffer.getPosition() - inputBuffer.getEnd());
+			complete = length <= 0;
+		}
 
-		if (lastValid >= end + request.getContentLength()) {
+		if (complete) {
 			// All data are read from client and transfered to node
 			// Wait for node response
 			readFromNode(request, response);
 			return;
 		}
 
-		final ByteBuffer buffer = inputBuffer.getByteBuffer();
-		buffer.clear();
-		int nRead = 0;
-		Throwable th = null;
-		try {
-			nRead = inputBuffer.readBytes(buffer);
-		} catch (Throwable t) {
-			th = t;
-		}
+		final ByteBuffer buffer = outputBuffer.takeBuffer();
+		final long timeout = inputBuffer.getReadTimeout();
+		final CompletionHandler<Integer, Response> handler = new CompletionHandler<Integer, Response>() {
 
-		if (nRead > 0) {
-			buffer.flip();
-			nodeChannel.write(buffer, n + nRead, new CompletionHandler<Integer, Integer>() {
+			private long remaining = length;
+			// Whether the pending operation is a read from the client
+			private boolean reading = false;
+			private boolean done = false;
+			private boolean released = false;
 
-				@Override
-				public void completed(Integer nWritten, Integer attachment) {
-					if (nWritten < 0) {
-						failed(new ClosedChannelException(), attachment);
-						return;
-					}
+			@Override
+			public void completed(Integer nBytes, Response attachment) {
+				if (nBytes < 0) {
+					failed(new ClosedChannelException(), attachment);
+					return;
+				}
 
-					if (buffer.hasRemaining()) {
-						nodeChannel.write(buffer, attachment, this);
-					} else {
-						int len = request.getContentLength();
-						try {
-							if (attachment < len) {
-								buffer.clear();
-								int nRead = inputBuffer.readBytes(buffer);
-								if (nRead < 0) {
-									failed(new ClosedChannelException(), attachment);
-								} else {
-									buffer.flip();
-									nodeChannel.write(buffer, attachment + nRead, this);
-								}
-							} else {
-								readFromNode(request, response);
-							}
-						} catch (Throwable e) {
-							failed(e, attachment);
+				if (this.reading) {
+					buffer.flip();
+					if (chunkedBodyParser != null) {
+						this.done = chunkedBodyParser.parse(buffer, buffer.position());
+						if (chunkedBodyParser.isDone()) {
+							keepNextRequest(attachment, buffer, chunkedBodyParser.getEnd());
 						}
+					} else {
+						this.remaining -= nBytes;
+						this.done = this.remaining <= 0;
+					}
+					// Wait until the bytes are written to the node before
+					// reading again from the client
+					this.reading = false;
+					nodeChannel.write(buffer, attachment, this);
+				} else if (buffer.hasRemaining()) {
+					nodeChannel.write(buffer, attachment, this);
+				} else if (this.done) {
+					release();
+					try {
+						readFromNode(request, response);
+					} catch (Throwable e) {
+						failed(e, attachment);
 					}
+				} else {
+					read(attachment);
 				}
+			}
 
-				@Override
-				public void failed(Throwable exc, Integer attachment) {
-					logger.error(exc, exc);
-					// Send error 503 to client
-					sendError(request, response);
+			@Override
+			public void failed(Throwable exc, Response attachment) {
+				logger.error(exc, exc);
+				release();
+				// Send error 503 to client
+				sendError(request, response);
+			}
+
+			/**
+			 * Give back the buffer to the pool once the body is sent
+			 */
+			private void release() {
+				if (!this.released) {
+					this.released = true;
+					outputBuffer.releaseBuffer(buffer);
 				}
-			});
-		} else {
-			throw new IOException("Read operation fails", th);
+			}
+
+			/**
+			 * Read the next bytes of the body from the client
+			 * 
+			 * @param attachment
+			 */
+			private void read(Response attachment) {
+				buffer.clear();
+				if (this.remaining >= 0 && this.remaining < buffer.capacity()) {
+					// Do not read past the end of the body
+					buffer.limit((int) this.remaining);
+				}
+				this.reading = true;
+				// From now on, the request can not be repeated
+				attachment.setNote(Constants.BODY_STREAMED_NOTE, Boolean.TRUE);
+				clientChannel.read(buffer, timeout, TimeUnit.MILLISECONDS, attachment, this);
+			}
+		};
+
+		// Nothing to write yet, start reading the body from the client
+		buffer.flip();
+		handler.completed(0, response);
+	}
+
+	/**
+	 * Keep the bytes read after the end of the body of the request for the
+	 * next pipelined request, and limit the buffer to the body. If they do not
+	 * fit in the input buffer, the connection is closed once the response is
+	 * sent.
+	 * 
+	 * @param response
+	 * @param buffer
+	 *            the buffer containing the end of the body
+	 * @param bodyEnd
+	 *            the offset of the first byte following the body
+	 */
+	private void keepNextRequest(final org.apache.coyote.Response response, ByteBuffer buffer,
+			int bodyEnd) {
+		int n = buffer.limit() - bodyEnd;
+		if (n <= 0) {
+			return;
+		}
+		AbstractInternalInputBuffer inputBuffer = (AbstractInternalInputBuffer) response
+				.getRequest().getInputBuffer();
+		if (!inputBuffer.append(buffer, bodyEnd, n)) {
+			((AbstractHttp11Processor<?>) response.hook).setKeepAlive(false);
 		}
+		buffer.limit(bodyEnd);
 	}
 
 	/**
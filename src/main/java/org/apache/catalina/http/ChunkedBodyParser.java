@@ -0,0 +1,198 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.catalina.http;
+
+import java.nio.ByteBuffer;
+
+import org.apache.coyote.http11.Constants;
+import org.apache.tomcat.util.buf.HexUtils;
+
+/**
+ * {@code ChunkedBodyParser}
+ * 
+ * Incremental parser of the framing of a chunked response body, following the
+ * rules of {@link org.apache.coyote.http11.filters.ChunkedInputFilter}. The
+ * parser is fed with the bytes relayed from the node to the client, without
+ * modifying nor copying them, and detects the last chunk and the trailers
+ * ending the body so that the node connection can be reused. The chunk data
+ * is skipped at once, only the chunk headers are parsed byte per byte.
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class ChunkedBodyParser {
+
+	// Parser states
+	private static final int SIZE = 0;
+	private static final int EXTENSION = 1;
+	private static final int DATA = 2;
+	private static final int DATA_CR = 3;
+	private static final int DATA_LF = 4;
+	private static final int TRAILER_START = 5;
+	private static final int TRAILER = 6;
+	private static final int DONE = 7;
+	private static final int ERROR = 8;
+
+	private int state = SIZE;
+	private long remaining = 0;
+	private boolean digit = false;
+	private int end = -1;
+
+	/**
+	 * Create a new instance of {@code ChunkedBodyParser}
+	 */
+	public ChunkedBodyParser() {
+		super();
+	}
+
+	/**
+	 * Parse the bytes of the buffer between the offset and its limit. The
+	 * position of the buffer is left unchanged.
+	 * 
+	 * @param buffer
+	 *            the buffer containing the bytes read from the node
+	 * @param off
+	 *            the offset of the first byte of the body in the buffer
+	 * @return <tt>true</tt> if the body is completely received or if it is
+	 *         malformed
+	 */
+	public boolean parse(ByteBuffer buffer, int off) {
+		int end = buffer.limit();
+		int i = off;
+		while (i < end && this.state < DONE) {
+			if (this.state == DATA) {
+				// Skip the chunk data
+				int n = (int) Math.min(this.remaining, end - i);
+				this.remaining -= n;
+				i += n;
+				if (this.remaining == 0) {
+					this.state = DATA_CR;
+				}
+			} else {
+				update(buffer.get(i++));
+			}
+		}
+		this.end = i;
+
+		return this.state >= DONE;
+	}
+
+	/**
+	 * Feed the state machine with the next byte of the chunk headers
+	 * 
+	 * @param b
+	 */
+	private void update(byte b) {
+		switch (this.state) {
+			case SIZE:
+				if (b == Constants.CR) {
+					// Nothing to do
+				} else if (b == Constants.LF) {
+					endSize();
+				} else if (b == Constants.SEMI_COLON) {
+					this.state = EXTENSION;
+				} else if (HexUtils.DEC[b & 0xff] != -1
+						&& this.remaining < (Long.MAX_VALUE >> 4)) {
+					this.digit = true;
+					this.remaining = (this.remaining << 4) + HexUtils.DEC[b & 0xff];
+				} else {
+					// we shouldn't allow invalid, non hex characters in the
+					// chunked header
+					this.state = ERROR;
+				}
+				break;
+			case EXTENSION:
+				// Ignore the chunk extensions
+				if (b == Constants.LF) {
+					endSize();
+				}
+				break;
+			case DATA_CR:
+				this.state = (b == Constants.CR) ? DATA_LF : ERROR;
+				break;
+			case DATA_LF:
+				this.state = (b == Constants.LF) ? SIZE : ERROR;
+				break;
+			case TRAILER_START:
+				if (b == Constants.LF) {
+					this.state = DONE;
+				} else if (b != Constants.CR) {
+					this.state = TRAILER;
+				}
+				break;
+			case TRAILER:
+				if (b == Constants.LF) {
+					this.state = TRAILER_START;
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * End the header of a chunk
+	 */
+	private void endSize() {
+		if (!this.digit) {
+			this.state = ERROR;
+		} else if (this.remaining == 0) {
+			// Last chunk, the body ends after the trailers
+			this.state = TRAILER_START;
+		} else {
+			this.state = DATA;
+		}
+		this.digit = false;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the last chunk and the trailers were received
+	 */
+	public boolean isDone() {
+		return this.state == DONE;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the chunked body is malformed
+	 */
+	public boolean isError() {
+		return this.state == ERROR;
+	}
+
+	/**
+	 * @return the offset in the last parsed buffer of the first byte which was
+	 *         not parsed. Once the body is done, this is the offset of the
+	 *         first byte following the body.
+	 */
+	public int getEnd() {
+		return this.end;
+	}
+
+	/**
+	 * 
+	 */
+	public void recycle() {
+		this.state = SIZE;
+		this.remaining = 0;
+		this.digit = false;
+		this.end = -1;
+	}
+}
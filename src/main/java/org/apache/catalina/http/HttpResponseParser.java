@@ -21,42 +21,89 @@
  */
 package org.apache.catalina.http;
 
+import java.nio.ByteBuffer;
+
 import org.apache.catalina.NodeResponse;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.Constants;
+import org.apache.tomcat.util.buf.ByteChunk;
 
 /**
  * {@code HttpResponseParser}
  * 
+ * Incremental parser of the HTTP response header sent back by the nodes. The
+ * parser is a state machine fed with the bytes as they are read from the node
+ * channel, so the status line and the headers may be split across any number
+ * of reads. The bytes are read in place and are never modified nor copied.
+ * Since the response is relayed as is to the client, only the status code and
+ * the headers framing the response (<tt>Content-Length</tt>,
+ * <tt>Transfer-Encoding</tt>, <tt>Connection</tt> and <tt>Keep-Alive</tt>)
+ * are decoded, the other headers are skipped.
+ * 
  * Created on Jun 25, 2012 at 11:54:14 AM
  * 
  * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
  */
 public class HttpResponseParser {
 
-	private boolean parsingHeader = true;
-	private boolean responseLine = false;
+	// Parser states
+	private static final int START = 0;
+	private static final int VERSION = 1;
+	private static final int STATUS_SPACE = 2;
+	private static final int STATUS = 3;
+	private static final int REASON = 4;
+	private static final int LINE_START = 5;
+	private static final int NAME = 6;
+	private static final int VALUE_SPACE = 7;
+	private static final int VALUE = 8;
+	private static final int END = 9;
+	private static final int DONE = 10;
+
+	// Decoded headers
+	private static final int OTHER = 0;
+	private static final int CONTENT_LENGTH = 1;
+	private static final int TRANSFER_ENCODING = 2;
+	private static final int CONNECTION = 3;
+	private static final int KEEP_ALIVE = 4;
+
+	private static final byte[][] HEADER_NAMES = { null, bytes("content-length"),
+			bytes("transfer-encoding"), bytes("connection"), bytes("keep-alive") };
+	private static final byte[] CHUNKED = bytes("chunked");
+	private static final byte[] CLOSE = bytes("close");
+	private static final byte[] TIMEOUT = bytes("timeout");
+	private static final byte[] MAX = bytes("max");
+	private static final String CHUNKED_ENCODING = "chunked";
+	private static final int NAME_SIZE = 20;
+	private static final int TOKEN_SIZE = 16;
+
 	private NodeResponse nodeResponse;
-	private DataBuffer dataBuffer;
+	private final ChunkedBodyParser chunkedBodyParser = new ChunkedBodyParser();
+	private int state = START;
 	private long headerLength = 0;
-	private static final int INT_BASE = (int) '0';
-	private StringBuilder headerNameBuffer = new StringBuilder();
-	private StringBuilder headerValueBuffer = new StringBuilder();
+	private int status = 0;
+	// The name of the current header, in lower case
+	private final byte name[] = new byte[NAME_SIZE];
+	private int nameLength = 0;
+	private int header = OTHER;
+	// The current token of the header value, in lower case
+	private final byte token[] = new byte[TOKEN_SIZE];
+	private int tokenLength = 0;
+	private long number = 0;
+	private int digits = 0;
+	private boolean invalid = false;
+	private boolean parameter = false;
+
+	private long contentLength = -1;
+	private boolean chunked = false;
+	private boolean close = false;
+	private long keepAliveTimeout = -1;
+	private long keepAliveMax = -1;
 
 	/**
 	 * Create a new instance of {@code HttpResponseParser}
 	 */
 	public HttpResponseParser() {
-		this.dataBuffer = new DataBuffer();
-	}
-
-	/**
-	 * Create a new instance of {@code HttpResponseParser}
-	 * 
-	 * @param dataBuffer
-	 */
-	public HttpResponseParser(DataBuffer dataBuffer) {
-		this.dataBuffer = dataBuffer;
+		super();
 	}
 
 	/**
@@ -69,230 +116,401 @@ public class HttpResponseParser {
 	}
 
 	/**
-	 * Parse the HTTP response headers and store them into the {@code response}
-	 * object
+	 * Parse the bytes between the position and the limit of the buffer. The
+	 * position of the buffer is left unchanged.
 	 * 
 	 * @param response
-	 * @param buf
-	 *            the byte array containing the node response
-	 * @param length
+	 * @param buffer
+	 *            the buffer containing the bytes read from the node
+	 * @return <tt>true</tt> if the response header is completely parsed
 	 */
-	public void parse(Response response, byte buf[], int length) {
-
-		if (!this.parsingHeader) {
-			return;
+	public boolean parse(Response response, ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			return parse(response, buffer.array(), buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
 		}
 
-		this.dataBuffer.setBytes(buf, 0, length);
+		if (this.state == DONE) {
+			return true;
+		}
 
-		if (!this.responseLine) {
-			// Retrieve the status line
-			parseResponseLine(response, this.dataBuffer);
-			// Skip CRLFs at the begin of the line
-			while (this.dataBuffer.getByte() == Constants.CR
-					|| this.dataBuffer.getByte() == Constants.LF) {
-				this.dataBuffer.update();
+		int off = buffer.position();
+		int end = buffer.limit();
+		for (int i = off; i < end; i++) {
+			if (update(response, buffer.get(i))) {
+				this.headerLength += i + 1 - off;
+				return true;
 			}
-			this.responseLine = true;
 		}
-
-		// Parsing header
-		parseHeaders(response, this.dataBuffer);
-		this.headerLength = this.dataBuffer.position();
+		this.headerLength += end - off;
+		return false;
 	}
 
 	/**
-	 * Retrieve the HTTP response line
+	 * Parse the bytes of the chunk
 	 * 
 	 * @param response
-	 * @param respBuff
+	 * @param chunk
+	 *            the chunk containing the bytes read from the node
+	 * @return <tt>true</tt> if the response header is completely parsed
 	 */
-	private void parseResponseLine(Response response, DataBuffer respBuff) {
+	public boolean parse(Response response, ByteChunk chunk) {
+		return parse(response, chunk.getBuffer(), chunk.getStart(), chunk.getLength());
+	}
 
-		byte b = 0;
-		// Skip blank lines
-		while ((b = respBuff.getByte()) == Constants.CR || b == Constants.LF) {
-			respBuff.update();
+	/**
+	 * Parse the bytes of the array
+	 * 
+	 * @param response
+	 * @param buf
+	 *            the byte array containing the node response
+	 * @param off
+	 * @param len
+	 * @return <tt>true</tt> if the response header is completely parsed
+	 */
+	public boolean parse(Response response, byte buf[], int off, int len) {
+		if (this.state == DONE) {
+			return true;
 		}
 
-		// Retrieving the protocol
-		boolean space = false;
-
-		while (!space) {
-			b = respBuff.getAndUpdate();
-			// Spec says single SP but it also says be tolerant of HT
-			if (b == Constants.SP || b == Constants.HT) {
-				space = true;
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			if (update(response, buf[i])) {
+				this.headerLength += i + 1 - off;
+				return true;
 			}
 		}
+		this.headerLength += len;
+		return false;
+	}
 
-		// Skipping spaces, Spec says single SP but also says be tolerant of
-		// multiple and/or HT
-		while (space) {
-			b = respBuff.getByte();
-			if (b == Constants.SP || b == Constants.HT) {
-				respBuff.update();
-			} else {
-				space = false;
-			}
+	/**
+	 * Feed the state machine with the next byte of the response
+	 * 
+	 * @param response
+	 * @param b
+	 * @return <tt>true</tt> if the byte ends the response header
+	 */
+	private boolean update(Response response, byte b) {
+		switch (this.state) {
+			case START:
+				// Skip blank lines
+				if (b != Constants.CR && b != Constants.LF) {
+					this.state = VERSION;
+				}
+				break;
+			case VERSION:
+				// Spec says single SP but it also says be tolerant of HT
+				if (b == Constants.SP || b == Constants.HT) {
+					this.state = STATUS_SPACE;
+				}
+				break;
+			case STATUS_SPACE:
+				if (b == Constants.SP || b == Constants.HT) {
+					break;
+				}
+				this.state = STATUS;
+				statusCode(b);
+				break;
+			case STATUS:
+				statusCode(b);
+				break;
+			case REASON:
+				if (b == Constants.LF) {
+					this.state = LINE_START;
+				}
+				break;
+			case LINE_START:
+				if (b == Constants.SP || b == Constants.HT) {
+					// Continuation of the previous header value
+					if (this.header != CONTENT_LENGTH) {
+						endToken();
+					}
+					this.state = VALUE;
+					break;
+				}
+				endHeader();
+				if (b == Constants.CR) {
+					this.state = END;
+				} else if (b == Constants.LF) {
+					return done(response);
+				} else {
+					this.state = NAME;
+					this.nameLength = 0;
+					name(b);
+				}
+				break;
+			case NAME:
+				if (b == Constants.COLON) {
+					this.header = lookup();
+					this.state = VALUE_SPACE;
+				} else if (b == Constants.LF) {
+					// Malformed line, ignore it
+					this.state = LINE_START;
+				} else {
+					name(b);
+				}
+				break;
+			case VALUE_SPACE:
+				if (b == Constants.SP || b == Constants.HT) {
+					break;
+				}
+				this.state = VALUE;
+				headerValue(b);
+				break;
+			case VALUE:
+				headerValue(b);
+				break;
+			case END:
+				if (b == Constants.LF) {
+					return done(response);
+				}
+				break;
+			default:
+				return true;
 		}
 
-		// Retrieving the status code
-		int start = respBuff.position();
-		while (!space) {
-			b = respBuff.getByte();
-			// Spec says single SP but it also says be tolerant of HT
-			if (b == Constants.SP || b == Constants.HT) {
-				space = true;
-				int status = bytesToInt(respBuff.buf, start, respBuff.position() - start);
-				response.setStatus(status);
-			}
-			respBuff.update();
-		}
+		return false;
+	}
 
-		// Retrieve the line
-		StringBuilder sb = new StringBuilder();
-		while ((b = respBuff.getByte()) != Constants.CR && b != Constants.LF) {
-			sb.append((char) respBuff.getAndUpdate());
+	/**
+	 * Decode a byte of the status code
+	 * 
+	 * @param b
+	 */
+	private void statusCode(byte b) {
+		if (b >= '0' && b <= '9') {
+			this.status = this.status * 10 + (b - '0');
+		} else if (b == Constants.LF) {
+			this.state = LINE_START;
+		} else {
+			this.state = REASON;
 		}
-		response.setMessage(sb.toString());
-		this.headerLength += respBuff.position();
 	}
 
 	/**
-	 * Parse the HTTP headers.
+	 * Handle a byte of the value of the current header
 	 * 
-	 * @param response
-	 * @param respBuff
+	 * @param b
 	 */
-	private void parseHeaders(Response response, DataBuffer respBuff) {
-
-		// Loop while there is more headers to parse
-		while (parseHeader(response, respBuff)) {
-			// NOPE
+	private void headerValue(byte b) {
+		if (b == Constants.LF) {
+			this.state = LINE_START;
+		} else if (b != Constants.CR && this.header != OTHER) {
+			value(b);
 		}
-
-		this.parsingHeader = false;
 	}
 
 	/**
-	 * Parse an HTTP header.
+	 * Append a byte to the name of the current header
 	 * 
-	 * @param response
-	 * @param respBuff
-	 * 
-	 * @return false after reading a blank line (which indicates that the HTTP
-	 *         header parsing is done
+	 * @param b
 	 */
-	private boolean parseHeader(Response response, DataBuffer respBuff) {
-		// Check for blank line
-		byte b = 0;
-		while (true) {
-			b = respBuff.getByte();
-			if ((b == Constants.CR) || (b == Constants.LF)) {
-				if (b == Constants.LF) {
-					respBuff.update();
-					return false;
-				}
-			} else {
-				break;
-			}
-
-			respBuff.update();
+	private void name(byte b) {
+		if (this.nameLength < NAME_SIZE) {
+			this.name[this.nameLength] = lowerCase(b);
 		}
+		this.nameLength++;
+	}
 
-		// Prepare StringBuilders for the new header
-		headerNameBuffer.delete(0, headerNameBuffer.length());
-		headerValueBuffer.delete(0, headerValueBuffer.length());
-
-		// Reading the header name
-		// Header name is always US-ASCII
-		boolean colon = false;
-		// MessageBytes headerValue = null;
-		String headerName = null;
-
-		while (!colon) {
-			b = respBuff.getByte();
-			if (b == Constants.COLON) {
-				colon = true;
-				headerName = headerNameBuffer.toString();
+	/**
+	 * @return the header matching the current header name
+	 */
+	private int lookup() {
+		for (int i = 1; i < HEADER_NAMES.length; i++) {
+			if (equals(this.name, this.nameLength, HEADER_NAMES[i])) {
+				this.tokenLength = 0;
+				this.number = 0;
+				this.digits = 0;
+				this.invalid = false;
+				this.parameter = false;
+				return i;
 			}
+		}
+		return OTHER;
+	}
 
-			if ((b >= Constants.A) && (b <= Constants.Z)) {
-				respBuff.setByte((byte) (b - Constants.LC_OFFSET));
+	/**
+	 * Decode a byte of the value of a framing header
+	 * 
+	 * @param b
+	 */
+	private void value(byte b) {
+		if (this.header == CONTENT_LENGTH) {
+			if (b >= '0' && b <= '9') {
+				int d = b - '0';
+				if (this.number > (Long.MAX_VALUE - d) / 10) {
+					this.invalid = true;
+				} else {
+					this.number = this.number * 10 + d;
+					this.digits++;
+				}
+			} else if (b != Constants.SP && b != Constants.HT) {
+				this.invalid = true;
 			}
-
-			if (!colon) {
-				headerNameBuffer.append((char) respBuff.getByte());
+		} else if (b == ',') {
+			endToken();
+		} else if (b == Constants.SEMI_COLON) {
+			// Skip the transfer coding parameters
+			this.parameter = true;
+		} else if (b == '=' && this.header == KEEP_ALIVE) {
+			this.parameter = true;
+			this.number = 0;
+			this.digits = 0;
+		} else if (b != Constants.SP && b != Constants.HT) {
+			if (!this.parameter) {
+				if (this.tokenLength < TOKEN_SIZE) {
+					this.token[this.tokenLength] = lowerCase(b);
+				}
+				this.tokenLength++;
+			} else if (this.header == KEEP_ALIVE) {
+				if (b >= '0' && b <= '9' && this.number < Integer.MAX_VALUE) {
+					this.number = this.number * 10 + (b - '0');
+					this.digits++;
+				} else {
+					this.invalid = true;
+				}
 			}
-			respBuff.update();
 		}
+	}
 
-		b = respBuff.getByte();
-		boolean space = true;
-
-		// Skipping spaces
-		while (space) {
-			b = respBuff.getByte();
-			if (b == Constants.SP || b == Constants.HT) {
-				respBuff.update();
-			} else {
-				space = false;
+	/**
+	 * End the current token of the header value
+	 */
+	private void endToken() {
+		if (this.tokenLength > 0) {
+			switch (this.header) {
+				case TRANSFER_ENCODING:
+					// The response is chunked only if chunked is the last
+					// transfer coding applied
+					this.chunked = equals(this.token, this.tokenLength, CHUNKED);
+					break;
+				case CONNECTION:
+					if (equals(this.token, this.tokenLength, CLOSE)) {
+						this.close = true;
+					}
+					break;
+				case KEEP_ALIVE:
+					if (this.digits > 0 && !this.invalid) {
+						if (equals(this.token, this.tokenLength, TIMEOUT)) {
+							this.keepAliveTimeout = this.number;
+						} else if (equals(this.token, this.tokenLength, MAX)) {
+							this.keepAliveMax = this.number;
+						}
+					}
+					break;
+				default:
+					break;
 			}
 		}
+		this.tokenLength = 0;
+		this.number = 0;
+		this.digits = 0;
+		this.invalid = false;
+		this.parameter = false;
+	}
 
-		while (b != Constants.CR && b != Constants.LF) {
-			b = respBuff.getByte();
-			headerValueBuffer.append((char) b);
-			respBuff.update();
+	/**
+	 * End the current header
+	 */
+	private void endHeader() {
+		if (this.header == CONTENT_LENGTH) {
+			if (this.digits > 0 && !this.invalid) {
+				this.contentLength = this.number;
+			}
+		} else if (this.header != OTHER) {
+			endToken();
 		}
+		this.header = OTHER;
+	}
 
-		// Skip the LF at the end of the line
-		while ((b = respBuff.getAndUpdate()) != Constants.LF) {
-			respBuff.update();
+	/**
+	 * Store the decoded status and framing headers into the response
+	 * 
+	 * @param response
+	 * @return <tt>true</tt>
+	 */
+	private boolean done(Response response) {
+		this.state = DONE;
+		response.setStatus(this.status);
+		if (this.chunked) {
+			// The transfer encoding overrides the content length
+			response.setTransferEncoding(CHUNKED_ENCODING);
+		} else if (this.contentLength >= 0) {
+			response.setContentLength(this.contentLength);
 		}
-
-		// Set the header value
-		String headerValueStr = headerValueBuffer.toString().trim();
-		response.addHeader(headerName, headerValueStr);
-		
-		
-		
 		return true;
 	}
 
 	/**
-	 * 
-	 * @param bytes
-	 * @param off
-	 * @param length
-	 * @return
+	 * @param b
+	 * @return the lower case of the byte if it is an upper case letter
 	 */
-	private static int bytesToInt(byte[] bytes, int off, int length) {
-		int value = 0;
-		int len = off + length;
+	private static byte lowerCase(byte b) {
+		if (b >= Constants.A && b <= Constants.Z) {
+			return (byte) (b - Constants.LC_OFFSET);
+		}
+		return b;
+	}
 
-		for (int i = off; i < len; i++) {
-			value += (int) Math.pow(10, len - i - 1) * (bytes[i] - INT_BASE);
+	/**
+	 * @param buf
+	 * @param len
+	 * @param value
+	 * @return <tt>true</tt> if the first <tt>len</tt> bytes of the buffer are
+	 *         equal to the value
+	 */
+	private static boolean equals(byte buf[], int len, byte value[]) {
+		if (len != value.length) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (buf[i] != value[i]) {
+				return false;
+			}
 		}
+		return true;
+	}
 
-		return value;
+	/**
+	 * @param str
+	 * @return the US-ASCII bytes of the string
+	 */
+	private static byte[] bytes(String str) {
+		byte bytes[] = new byte[str.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) str.charAt(i);
+		}
+		return bytes;
 	}
 
 	/**
-	 * 
+	 * Reset the parser, and the parser of the chunked body, for a new
+	 * response
 	 */
 	public void recycle() {
-		this.parsingHeader = true;
-		this.responseLine = false;
+		this.state = START;
 		this.headerLength = 0;
-		this.dataBuffer.clear();
+		this.status = 0;
+		this.nameLength = 0;
+		this.header = OTHER;
+		this.tokenLength = 0;
+		this.number = 0;
+		this.digits = 0;
+		this.invalid = false;
+		this.parameter = false;
+		this.contentLength = -1;
+		this.chunked = false;
+		this.close = false;
+		this.keepAliveTimeout = -1;
+		this.keepAliveMax = -1;
+		this.chunkedBodyParser.recycle();
 	}
 
 	/**
 	 * Getter for headerLength
 	 * 
-	 * @return the headerLength
+	 * @return the number of bytes of the response header parsed so far
 	 */
 	public long getHeaderLength() {
 		return this.headerLength;
@@ -302,7 +520,38 @@ public class HttpResponseParser {
 	 * @return <tt>true</tt> if the parse is parsing response header
 	 */
 	public boolean parsingHeader() {
-		return this.parsingHeader;
+		return this.state != DONE;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the node asked to close the connection with the
+	 *         <tt>Connection: close</tt> header
+	 */
+	public boolean isConnectionClose() {
+		return this.close;
+	}
+
+	/**
+	 * @return the <tt>timeout</tt> parameter of the <tt>Keep-Alive</tt> header
+	 *         in seconds, or <tt>-1</tt> if not present
+	 */
+	public long getKeepAliveTimeout() {
+		return this.keepAliveTimeout;
+	}
+
+	/**
+	 * @return the <tt>max</tt> parameter of the <tt>Keep-Alive</tt> header, or
+	 *         <tt>-1</tt> if not present
+	 */
+	public long getKeepAliveMax() {
+		return this.keepAliveMax;
+	}
+
+	/**
+	 * @return the parser of the body of the chunked responses
+	 */
+	public ChunkedBodyParser getChunkedBodyParser() {
+		return this.chunkedBodyParser;
 	}
 
 	/**
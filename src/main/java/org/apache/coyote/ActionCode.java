@@ -171,6 +171,11 @@ public final class ActionCode {
 	 */
 	public static final ActionCode ACTION_EVENT_WRITE = new ActionCode(27);
 
+	/**
+	 * Callback for lazy evaluation - raw bytes of the remote address.
+	 **/
+	public static final ActionCode ACTION_REQ_REMOTEADDRESS_ATTRIBUTE = new ActionCode(28);
+
 	private int code;
 
 	/**
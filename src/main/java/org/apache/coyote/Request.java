@@ -69,6 +69,7 @@ public final class Request {
 	private MessageBytes serverNameMB = MessageBytes.newInstance();
 
 	private int remotePort;
+	private byte remoteAddress[];
 	private int localPort;
 
 	private MessageBytes schemeMB = MessageBytes.newInstance();
@@ -289,6 +290,23 @@ public final class Request {
 		this.remotePort = port;
 	}
 
+	/**
+	 * @return the raw bytes of the remote IP address (4 bytes for IPv4, 16 for
+	 *         IPv6). The array is shared with the processor and must not be
+	 *         modified
+	 */
+	public byte[] getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * @param address
+	 *            the raw bytes of the remote IP address
+	 */
+	public void setRemoteAddress(byte address[]) {
+		this.remoteAddress = address;
+	}
+
 	/**
 	 * @return the local port
 	 */
@@ -571,6 +589,7 @@ public final class Request {
 		serverPort = -1;
 		localPort = -1;
 		remotePort = -1;
+		remoteAddress = null;
 		available = 0;
 
 		cookies.recycle();
@@ -159,6 +159,11 @@ public abstract class AbstractHttp11Processor<E> implements ActionHook {
 	 */
 	protected int remotePort = -1;
 
+	/**
+	 * Raw bytes of the remote IP address of the current connection.
+	 */
+	protected byte remoteAddress[] = null;
+
 	/**
 	 * The local Host address.
 	 */
@@ -608,6 +613,7 @@ public abstract class AbstractHttp11Processor<E> implements ActionHook {
 		localAddr = null;
 		localName = null;
 		remotePort = -1;
+		remoteAddress = null;
 		localPort = -1;
 
 		// Error flag
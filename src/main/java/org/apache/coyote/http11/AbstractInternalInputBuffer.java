@@ -81,7 +81,6 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	 * Pointer to the current read buffer.
 	 */
 	protected byte[] buf;
-	protected byte[] buf2;
 
 	/**
 	 * 
@@ -91,7 +90,9 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	protected boolean useBodyEncodingForURI = USE_BODY_ENCODING_FOR_QUERY_STRING;
 
 	/**
-	 * Direct byte buffer used to perform actual reading.
+	 * Direct byte buffer used to perform actual reading. It keeps the request
+	 * head as received, at the same offsets as in the parse buffer, so that it
+	 * is forwarded as is.
 	 */
 	protected ByteBuffer bbuf;
 
@@ -168,7 +169,6 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		int size = (headerBufferSize < Constants.MIN_BUFFER_SIZE) ? (6 * 1500)
 				: ((headerBufferSize / 1500 + 1) * 1500);
 		this.buf = new byte[size];
-		this.buf2 = new byte[size];
 		this.bbuf = ByteBuffer.allocateDirect(size);
 	}
 
@@ -198,7 +198,7 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	 * @return the byte array
 	 */
 	public byte[] getBuffer() {
-		return this.buf2;
+		return this.buf;
 	}
 
 	/**
@@ -215,6 +215,46 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		return this.pos;
 	}
 
+	/**
+	 * Set the position of the buffer pointer. The bytes between the position
+	 * and the last valid byte are kept for the next request.
+	 * 
+	 * @param pos
+	 *            the new position
+	 */
+	public void setPosition(int pos) {
+		this.pos = pos;
+	}
+
+	/**
+	 * Append to the buffer bytes received after the end of the current
+	 * request, so that they are parsed as the beginning of the next request.
+	 * The position and the limit of the source buffer are left unchanged.
+	 * 
+	 * @param src
+	 *            the buffer containing the bytes
+	 * @param off
+	 *            the offset of the first byte in the source buffer
+	 * @param len
+	 *            the number of bytes
+	 * @return <tt>true</tt> if the bytes were appended, <tt>false</tt> if they
+	 *         do not fit in the buffer
+	 */
+	public boolean append(ByteBuffer src, int off, int len) {
+		if (lastValid + len > buf.length) {
+			return false;
+		}
+		int position = src.position();
+		int limit = src.limit();
+		src.limit(off + len).position(off);
+		src.get(buf, lastValid, len);
+		src.limit(limit).position(position);
+		bbuf.limit(bbuf.capacity()).position(lastValid);
+		bbuf.put(buf, lastValid, len);
+		lastValid += len;
+		return true;
+	}
+
 	/**
 	 * Get filters.
 	 * 
@@ -326,6 +366,9 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 				opos += pos;
 			}
 			System.arraycopy(buf, opos, buf, npos, lastValid - opos);
+			// Keep the direct buffer aligned with the parse buffer
+			bbuf.limit(lastValid).position(pos);
+			bbuf.compact();
 		}
 
 		// Recycle filters
@@ -747,47 +790,45 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 				}
 			}
 
+			// The header names are compared ignoring case, they are kept as
+			// received
 			if (buf[pos] == Constants.COLON) {
 				colon = true;
 				headerValue = headers.addValue(buf, start, pos - start);
 			}
-			chr = buf[pos];
-			if ((chr >= Constants.A) && (chr <= Constants.Z)) {
-				buf[pos] = (byte) (chr - Constants.LC_OFFSET);
-			}
 
 			pos++;
 		}
 
+		// Skipping spaces
+		boolean space = true;
+		while (space) {
+			// Read new bytes if needed
+			if (pos >= lastValid) {
+				if (!fill()) {
+					throw new EOFException(sm.getString("iib.eof.error"));
+				}
+			}
+
+			if ((buf[pos] == Constants.SP) || (buf[pos] == Constants.HT)) {
+				pos++;
+			} else {
+				space = false;
+			}
+		}
+
 		// Mark the current buffer position
 		start = pos;
-		int realPos = pos;
+		int lastSignificantChar = pos;
 
-		// Reading the header value (which can be spanned over multiple lines)
+		// Reading the header value (which can be spanned over multiple lines).
+		// The bytes are not moved so that the request head can be forwarded
+		// as is to the node, the line folding is only replaced by spaces
 
 		boolean eol = false;
 		boolean validLine = true;
 
 		while (validLine) {
-			boolean space = true;
-			// Skipping spaces
-			while (space) {
-				// Read new bytes if needed
-				if (pos >= lastValid) {
-					if (!fill()) {
-						throw new EOFException(sm.getString("iib.eof.error"));
-					}
-				}
-
-				if ((buf[pos] == Constants.SP) || (buf[pos] == Constants.HT)) {
-					pos++;
-				} else {
-					space = false;
-				}
-			}
-
-			int lastSignificantChar = realPos;
-
 			// Reading bytes until the end of the line
 			while (!eol) {
 				// Read new bytes if needed
@@ -797,23 +838,16 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 					}
 				}
 
-				if (buf[pos] == Constants.CR) {
-				} else if (buf[pos] == Constants.LF) {
+				chr = buf[pos];
+				if (chr == Constants.LF) {
 					eol = true;
-				} else if (buf[pos] == Constants.SP) {
-					buf[realPos] = buf[pos];
-					realPos++;
-				} else {
-					buf[realPos] = buf[pos];
-					realPos++;
-					lastSignificantChar = realPos;
+				} else if (chr != Constants.CR && chr != Constants.SP && chr != Constants.HT) {
+					lastSignificantChar = pos + 1;
 				}
 
 				pos++;
 			}
 
-			realPos = lastSignificantChar;
-
 			// Checking the first character of the new line. If the character
 			// is a LWS, then it's a multi-line header
 
@@ -829,15 +863,19 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 				validLine = false;
 			} else {
 				eol = false;
-				// Copying one extra space in the buffer (since there must
-				// be at least one space inserted between the lines)
-				buf[realPos] = chr;
-				realPos++;
+				// Replace the CRLF of the folding by spaces, also in the bytes
+				// forwarded to the node
+				buf[pos - 1] = Constants.SP;
+				bbuf.put(pos - 1, Constants.SP);
+				if (buf[pos - 2] == Constants.CR) {
+					buf[pos - 2] = Constants.SP;
+					bbuf.put(pos - 2, Constants.SP);
+				}
 			}
 		}
 
 		// Set the header value
-		headerValue.setBytes(buf, start, realPos - start);
+		headerValue.setBytes(buf, start, lastSignificantChar - start);
 
 		return true;
 	}
@@ -927,7 +965,7 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	}
 
 	/**
-	 * @return the byte buffer
+	 * @return the direct byte buffer holding the request head as received
 	 */
 	public ByteBuffer getByteBuffer() {
 		return this.bbuf;
@@ -940,6 +978,13 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		return this.end;
 	}
 
+	/**
+	 * @return the read timeout in milliseconds
+	 */
+	public int getReadTimeout() {
+		return this.readTimeout;
+	}
+
 	/**
 	 * @return the maxPostSize
 	 */
@@ -213,6 +213,44 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		tryWrite();
 	}
 
+	/**
+	 * Relay the content of the buffer to the client without copying it. The
+	 * buffer, ready to be read, must have been taken by {@link #takeBuffer()}
+	 * and must not be used by the caller anymore: it is given back to the pool
+	 * once written.
+	 * 
+	 * @param buffer
+	 */
+	public void writeToClient(ByteBuffer buffer) {
+		if (buffer.hasRemaining()) {
+			this.localPool.offer(buffer);
+		} else {
+			offer(buffer);
+		}
+
+		tryWrite();
+	}
+
+	/**
+	 * Take a buffer from the pool, to receive the data to relay to the client
+	 * with {@link #writeToClient(ByteBuffer)}
+	 * 
+	 * @return an empty buffer
+	 */
+	public ByteBuffer takeBuffer() {
+		return poll();
+	}
+
+	/**
+	 * Give back to the pool a buffer taken by {@link #takeBuffer()} which was
+	 * not relayed to the client
+	 * 
+	 * @param buffer
+	 */
+	public void releaseBuffer(ByteBuffer buffer) {
+		offer(buffer);
+	}
+
 	/**
 	 * Try to perform a write operation. The write operation might be
 	 * synchronous or asynchronous
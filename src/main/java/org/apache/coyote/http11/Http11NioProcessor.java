@@ -204,6 +204,18 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 	public void awaitNext() {
 
 		final NioChannel ch = this.channel;
+		if (inputBuffer.available()) {
+			// The next request was pipelined with the previous one, and its
+			// first bytes are already in the input buffer
+			try {
+				if (process(ch) == SocketState.CLOSED) {
+					closeSocket(ch);
+				}
+			} catch (IOException e) {
+				closeSocket(ch);
+			}
+			return;
+		}
 		// Asynchronous wait for next request.
 		ch.awaitRead(endpoint.getKeepAliveTimeout(), TimeUnit.MILLISECONDS, ch,
 				new CompletionHandler<Integer, NioChannel>() {
@@ -574,6 +586,21 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 		request.setRemotePort(remotePort);
 	}
 
+	/**
+	 * Get the raw bytes of the remote address, computed once per connection
+	 */
+	private void requestRemoteAddressAttr() {
+		if (remoteAddress == null && (channel != null)) {
+			try {
+				remoteAddress = ((InetSocketAddress) this.channel.getRemoteAddress()).getAddress()
+						.getAddress();
+			} catch (Exception e) {
+				log.warn(sm.getString("http11processor.socket.info"), e);
+			}
+		}
+		request.setRemoteAddress(remoteAddress);
+	}
+
 	/**
 	 * Get local port
 	 */
@@ -793,6 +820,9 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 		} else if (actionCode == ActionCode.ACTION_REQ_REMOTEPORT_ATTRIBUTE) {
 			// Get remote port
 			requestRemotePortAttr();
+		} else if (actionCode == ActionCode.ACTION_REQ_REMOTEADDRESS_ATTRIBUTE) {
+			// Get the raw remote address
+			requestRemoteAddressAttr();
 		} else if (actionCode == ActionCode.ACTION_REQ_LOCALPORT_ATTRIBUTE) {
 			// Get local port
 			requestLocalPortAttr();
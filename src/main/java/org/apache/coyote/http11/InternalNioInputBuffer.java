@@ -107,9 +107,7 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 				}
 
 				if (nBytes > 0) {
-					bbuf.flip();
-					bbuf.get(buf, pos, nBytes);
-					lastValid = pos + nBytes;
+					received(nBytes);
 					endpoint.processChannel(attachment, SocketStatus.OPEN_READ);
 				}
 			}
@@ -213,10 +211,7 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 		int nRead = this.blockingRead();
 
 		if (nRead > 0) {
-			bbuf.flip();
-			bbuf.get(buf, pos, nRead);
-			System.arraycopy(buf, pos, buf2, pos, nRead);
-			lastValid = pos + nRead;
+			received(nRead);
 		} else if (nRead == NioChannel.OP_STATUS_CLOSED) {
 			throw new IOException(sm.getString("iib.failedread"));
 		} else if (nRead == NioChannel.OP_STATUS_READ_TIMEOUT) {
@@ -230,8 +225,6 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 * Prepare the input buffer for reading
 	 */
 	private void prepare() {
-		bbuf.clear();
-
 		if (parsingHeader) {
 			if (lastValid == buf.length) {
 				throw new IllegalArgumentException(sm.getString("iib.requestheadertoolarge.error"));
@@ -249,6 +242,24 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 			pos = end;
 			lastValid = pos;
 		}
+
+		// The bytes are read in the direct buffer at the same offset as in
+		// the parse buffer, so that the direct buffer holds the request head
+		// as received
+		bbuf.limit(bbuf.capacity()).position(pos);
+	}
+
+	/**
+	 * Copy the bytes just read in the direct buffer to the parse buffer. The
+	 * direct buffer is left unchanged to forward them as is.
+	 * 
+	 * @param n
+	 *            the number of bytes read
+	 */
+	private void received(int n) {
+		bbuf.position(pos);
+		bbuf.get(buf, pos, n);
+		lastValid = pos + n;
 	}
 
 	/**
@@ -211,20 +211,33 @@ public final class Cookies { // extends MultiMap {
 			return;
 		}
 
-		int src = bc.getStart();
+		int start = bc.getStart();
 		int end = bc.getEnd();
-		int dest = src;
 		byte[] buffer = bc.getBuffer();
+		int src = start;
+		while (src < end - 1 && (buffer[src] != '\\' || buffer[src + 1] != '"')) {
+			src++;
+		}
+		if (src >= end - 1) {
+			// Nothing to unescape
+			return;
+		}
+
+		// The header bytes are left untouched, the value is unescaped in a
+		// new buffer
+		byte[] unescaped = new byte[end - start];
+		int dest = src - start;
+		System.arraycopy(buffer, start, unescaped, 0, dest);
 
 		while (src < end) {
-			if (buffer[src] == '\\' && src < end && buffer[src + 1] == '"') {
+			if (buffer[src] == '\\' && src < end - 1 && buffer[src + 1] == '"') {
 				src++;
 			}
-			buffer[dest] = buffer[src];
+			unescaped[dest] = buffer[src];
 			dest++;
 			src++;
 		}
-		bc.setEnd(dest);
+		bc.setBytes(unescaped, 0, dest);
 	}
 
 	/**
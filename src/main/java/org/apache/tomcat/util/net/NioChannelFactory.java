@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.CompletionHandler;
 import java.util.Hashtable;
 
 import org.apache.tomcat.util.net.jsse.NioJSSEChannelFactory;
@@ -166,6 +167,22 @@ public abstract class NioChannelFactory implements Cloneable {
 	 */
 	public NioChannel connect(NioChannel channel, SocketAddress socketAddress) throws Exception {
 		channel.connect(socketAddress).get();
+		return connected(channel, socketAddress);
+	}
+
+	/**
+	 * Complete the setup of a {@code NioChannel} once it is connected to the
+	 * remote address
+	 * 
+	 * @param channel
+	 *            the connected channel
+	 * @param socketAddress
+	 *            the remote address
+	 * @return the channel ready to use
+	 * @throws Exception
+	 */
+	protected NioChannel connected(NioChannel channel, SocketAddress socketAddress)
+			throws Exception {
 		// Initialize the channel
 		initChannel(channel);
 		// Perform a handshake
@@ -173,6 +190,54 @@ public abstract class NioChannelFactory implements Cloneable {
 		return channel;
 	}
 
+	/**
+	 * Open a new {@code NioChannel} and connect it asynchronously to the
+	 * remote address. The handler is notified with the connected channel, or
+	 * with the failure cause in which case the channel is closed.
+	 * 
+	 * @param socketAddress
+	 *            the remote address
+	 * @param attachment
+	 *            the object to attach to the I/O operation; can be
+	 *            {@code null}
+	 * @param handler
+	 *            the handler for consuming the result
+	 * @return the channel being connected. It may be closed by the caller to
+	 *         abort the connect operation (e.g., on timeout)
+	 * @throws IOException
+	 *             if the channel can not be opened
+	 */
+	public <A> NioChannel connect(final SocketAddress socketAddress, final A attachment,
+			final CompletionHandler<NioChannel, ? super A> handler) throws IOException {
+		final NioChannel channel = open();
+		channel.connect(socketAddress, attachment, new CompletionHandler<Void, A>() {
+
+			@Override
+			public void completed(Void result, A attach) {
+				NioChannel ch = null;
+				try {
+					ch = connected(channel, socketAddress);
+				} catch (Throwable th) {
+					failed(th, attach);
+					return;
+				}
+				handler.completed(ch, attach);
+			}
+
+			@Override
+			public void failed(Throwable exc, A attach) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// NOPE
+				}
+				handler.failed(exc, attach);
+			}
+		});
+
+		return channel;
+	}
+
 	/**
 	 * Open a new {@code NioChannel} and connect it the remote address
 	 * 
@@ -286,11 +286,11 @@ public class NioJSSEChannelFactory extends DefaultNioChannelFactory {
 	 * (non-Javadoc)
 	 * 
 	 * @see
-	 * org.apache.tomcat.util.net.NioChannelFactory#connect(org.apache.tomcat
+	 * org.apache.tomcat.util.net.NioChannelFactory#connected(org.apache.tomcat
 	 * .util.net.NioChannel, java.net.SocketAddress)
 	 */
-	public NioChannel connect(NioChannel channel, SocketAddress socketAddress) throws Exception {
-		channel.connect(socketAddress).get();
+	protected NioChannel connected(NioChannel channel, SocketAddress socketAddress)
+			throws Exception {
 		InetSocketAddress isa = (InetSocketAddress) socketAddress;
 		SSLEngine engine = sslContext.createSSLEngine(isa.getHostString(), isa.getPort());
 		SecureNioChannel secureChannel = (SecureNioChannel) channel;
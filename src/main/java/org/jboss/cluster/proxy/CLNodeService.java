@@ -21,25 +21,17 @@
  */
 package org.jboss.cluster.proxy;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.StandardSocketOptions;
-import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.LifeCycleServiceAdapter;
 import org.apache.coyote.Request;
-import org.apache.tomcat.util.net.NioChannel;
 import org.jboss.cluster.proxy.container.Node;
+import org.jboss.cluster.proxy.container.NodeSelector;
 import org.jboss.cluster.proxy.container.NodeService;
+import org.jboss.cluster.proxy.container.OutlierDetector;
+import org.jboss.cluster.proxy.container.WeightedRoundRobinSelector;
 import org.jboss.cluster.proxy.xml.XmlConfig;
 import org.jboss.cluster.proxy.xml.XmlNode;
 import org.jboss.cluster.proxy.xml.XmlNodes;
@@ -48,6 +40,11 @@ import org.jboss.logging.Logger;
 /**
  * {@code NodeService}
  * 
+ * <p>
+ * Node service of the static nodes. The failures of the nodes are tracked by
+ * their circuit breakers, which are fed by the live requests and by the
+ * asynchronous health checks of the nodes.
+ * </p>
  * Created on Jun 20, 2012 at 3:16:46 PM
  * 
  * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
@@ -56,11 +53,11 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 
 	private static final Logger logger = Logger.getLogger(CLNodeService.class);
 	private List<Node> nodes;
-	private Random random;
-	private boolean running = false;
-	private Object mutex;
-	private AtomicInteger activeNodes = new AtomicInteger(0);
+	private volatile Node nodeArray[] = new Node[0];
+	private OutlierDetector outlierDetector;
+	private NodeSelector selector;
 	private ConnectionManager connectionManager;
+	private volatile HealthChecker healthChecker;
 
 	/**
 	 * Create a new instance of {@code NodeService}
@@ -80,8 +77,9 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 		}
 
 		logger.info("Initializing Node Service");
-		this.random = new Random();
-		this.nodes = new ArrayList<>();
+		this.selector = createSelector();
+		this.outlierDetector = new OutlierDetector();
+		this.nodes = new CopyOnWriteArrayList<>();
 
 		XmlNodes xmlNodes = XmlConfig.loadNodes();
 		logger.info("Adding new nodes : " + xmlNodes);
@@ -89,11 +87,23 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 			Node node = new Node();
 			node.setHostname(n.getHostname());
 			node.setPort(n.getPort());
+			if (n.getSmax() != null) {
+				node.setSmax(n.getSmax());
+			}
+			if (n.getTtl() != null) {
+				node.setTtl(n.getTtl());
+			}
+			if (n.getMaxConnections() != null) {
+				node.setMaxConnections(n.getMaxConnections());
+			}
+			if (n.getWeight() != null) {
+				node.setWeight(n.getWeight());
+			}
+			// Without ping, the node is checked at the global interval
+			node.setPing(n.getPing() != null ? n.getPing() : 0);
 			this.addNode(node);
 		}
-		this.mutex = new Object();
 		setInitialized(true);
-		this.activeNodes.set(nodes.size());
 		logger.info("Node Service initialized");
 	}
 
@@ -107,13 +117,17 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 		if (!isInitialized()) {
 			init();
 		}
-		// Start new thread for failed node health check
-		Thread t = new Thread(new HealthChecker());
-		t.setDaemon(true);
-		t.setPriority(Thread.MIN_PRIORITY);
-		t.start();
+		if (this.connectionManager != null) {
+			this.healthChecker = new HealthChecker(this.connectionManager);
+			for (Node node : this.nodes) {
+				this.healthChecker.register(node);
+				if (node.isNodeUp()) {
+					this.connectionManager.prewarm(node);
+				}
+			}
+			this.healthChecker.start();
+		}
 		setStarted(true);
-		this.running = true;
 	}
 
 	/*
@@ -123,7 +137,10 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 	 */
 	@Override
 	public void stop() throws Exception {
-		this.running = false;
+		if (this.healthChecker != null) {
+			this.healthChecker.stop();
+			this.healthChecker = null;
+		}
 		setStarted(false);
 		setPaused(false);
 	}
@@ -138,11 +155,7 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 		stop();
 		this.nodes.clear();
 		this.nodes = null;
-		this.random = null;
-		synchronized (this.mutex) {
-			this.mutex.notifyAll();
-		}
-
+		this.selector = null;
 		setInitialized(false);
 	}
 
@@ -157,22 +170,42 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 			return;
 		}
 
-		if (node.getJvmRoute() == null) {
-			node.setJvmRoute(UUID.randomUUID().toString());
-			synchronized (this.nodes) {
-				nodes.add(node);
+		synchronized (this.nodes) {
+			if (node.getJvmRoute() == null) {
+				node.setJvmRoute(UUID.randomUUID().toString());
+			} else {
+				for (Node n : this.nodes) {
+					if (node.getJvmRoute().equals(n.getJvmRoute())) {
+						return;
+					}
+				}
 			}
-			return;
-		}
-
-		for (Node n : this.nodes) {
-			if (node.getJvmRoute().equals(n.getJvmRoute())) {
-				return;
+			// The node does not exist in the list, add it to the list
+			this.nodes.add(node);
+			this.nodeArray = this.nodes.toArray(new Node[this.nodes.size()]);
+			this.selector.setNodes(this.nodeArray);
+			if (this.healthChecker != null) {
+				this.healthChecker.register(node);
 			}
 		}
-		// The node does not exist in the list, add it to the list
-		synchronized (this.nodes) {
-			nodes.add(node);
+	}
+
+	/**
+	 * Create the node selector configured by the
+	 * {@link Constants#NODE_SELECTOR_NAME} system property
+	 * 
+	 * @return the node selector
+	 */
+	private static NodeSelector createSelector() {
+		String className = System.getProperty(Constants.NODE_SELECTOR_NAME,
+				Constants.DEFAULT_NODE_SELECTOR);
+		try {
+			return Class.forName(className).asSubclass(NodeSelector.class).getDeclaredConstructor()
+					.newInstance();
+		} catch (Throwable t) {
+			logger.error("Unable to create node selector " + className
+					+ ", using the weighted round robin selector", t);
+			return new WeightedRoundRobinSelector();
 		}
 	}
 
@@ -183,7 +216,14 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 	 */
 	@Override
 	public int getActiveNodes() {
-		return this.activeNodes.get();
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Node node : this.nodes) {
+			if (node.isAvailable(now)) {
+				count++;
+			}
+		}
+		return count;
 	}
 
 	/**
@@ -201,41 +241,6 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 		return getActiveNodes() != this.nodes.size();
 	}
 
-	/**
-	 * @return a node
-	 */
-	private Node getNode() {
-		return ((this.nodes.isEmpty() || getActiveNodes() <= 0) ? null : getNode(0));
-	}
-
-	/**
-	 * Select a node randomly
-	 * 
-	 * @param n
-	 *            the number of tries
-	 * @return a {@link Node}
-	 * @see #getNode()
-	 */
-	private Node getNode(int n) {
-		// This means that we made enough random tests, so check all nodes and
-		// return the first node available (if any)
-		if (n >= this.nodes.size()) {
-			int pos = 0;
-			Node array[] = new Node[getActiveNodes()];
-			for (Node nod : this.nodes) {
-				if (nod.isNodeUp()) {
-					array[pos++] = nod;
-				}
-			}
-
-			return (pos > 0 ? array[random.nextInt(pos)] : null);
-		} else {
-			int index = random.nextInt(this.nodes.size());
-			Node node = this.nodes.get(index);
-			return (node.isNodeUp() ? node : getNode(n + 1));
-		}
-	}
-
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -245,12 +250,33 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 	 */
 	@Override
 	public Node getNode(Request request) {
-		// URI decoding
-		// String requestURI = request.decodedURI().toString();
+		return getNode(request, null, System.currentTimeMillis());
+	}
 
-		// TODO complete code here
+	/**
+	 * Select a node for the request, other than the excluded node
+	 * 
+	 * @param request
+	 * @param excluded
+	 *            the node which has just failed for the request, or
+	 *            <tt>null</tt>
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return a node or <tt>null</tt> if there is no available node
+	 */
+	private Node getNode(Request request, Node excluded, long now) {
+		// A node in half-open state may run out of probes between its
+		// selection and the acquisition, in which case it is not available
+		// anymore for the next selection
+		this.outlierDetector.detect(this.nodeArray, now);
+		for (int i = this.nodes.size(); i > 0; i--) {
+			Node node = this.selector.select(request, excluded);
+			if (node == null || node.getCircuitBreaker().tryAcquire(now)) {
+				return node;
+			}
+		}
 
-		return getNode();
+		return null;
 	}
 
 	/*
@@ -264,8 +290,9 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 	public Node getNode(Request request, Node failedNode) {
 		// Mark the node as failed
 		failedNode(failedNode);
-		// Check for another node
-		return getNode(request);
+		// Check for another node, the failed node may still be available
+		// until its circuit breaker opens
+		return getNode(request, failedNode, System.currentTimeMillis());
 	}
 
 	/*
@@ -276,21 +303,8 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 	 * .proxy.container.Node)
 	 */
 	public void failedNode(Node node) {
-		if (node != null) {
-			synchronized (node) {
-				if (!node.isNodeDown()) {
-					// Update the node status to DOWN
-					node.setNodeDown();
-					// Update the number of active nodes
-					this.activeNodes.decrementAndGet();
-					logger.info("New failed node <" + node.getHostname() + ":" + node.getPort()
-							+ ">");
-					// Notify health checker thread
-					synchronized (this.mutex) {
-						this.mutex.notifyAll();
-					}
-				}
-			}
+		if (node != null && node.getCircuitBreaker().onFailure(System.currentTimeMillis())) {
+			logger.info("New failed node <" + node.getHostname() + ":" + node.getPort() + ">");
 		}
 	}
 
@@ -302,7 +316,7 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 		int i = 0;
 		for (Node n : this.nodes) {
 			sb.append("[").append(n.getHostname()).append(":").append(n.getPort()).append(":")
-					.append(n.getStatus()).append("]");
+					.append(n.getStatus()).append(":").append(n.getCircuitBreaker()).append("]");
 			if ((i++) < this.nodes.size() - 1) {
 				sb.append(", ");
 			}
@@ -325,205 +339,4 @@ public class CLNodeService extends LifeCycleServiceAdapter implements NodeServic
 	public ConnectionManager getConnectionManager() {
 		return connectionManager;
 	}
-
-	/**
-	 * {@code HealthChecker}
-	 * 
-	 * Created on Sep 18, 2012 at 3:46:36 PM
-	 * 
-	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
-	 */
-	private class HealthChecker implements Runnable {
-
-		private ByteBuffer buffer;
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see java.lang.Runnable#run()
-		 */
-		@Override
-		public void run() {
-			if (connectionManager != null) {
-				buffer = ByteBuffer.allocateDirect(1024);
-			}
-			while (running) {
-				// Wait until there is at least one failed node or the system is
-				// paused
-				while (!failedExist() || isPaused()) {
-					synchronized (mutex) {
-						try {
-							// Waits at most 10 seconds
-							mutex.wait(10000);
-						} catch (InterruptedException e) {
-							// NOPE
-						}
-					}
-				}
-
-				if (!running) {
-					break;
-				}
-
-				for (Node node : nodes) {
-					if (node.isNodeDown()) {
-						if (checkHealth(node)) {
-							// Update the node status to UP
-							node.setNodeUp();
-							// Update the number of active nodes
-							activeNodes.incrementAndGet();
-							logger.info("New available node <" + node.getHostname() + ":"
-									+ node.getPort() + ">");
-						}
-					}
-				}
-
-				try {
-					// Try after 5 seconds
-					Thread.sleep(10000);
-				} catch (InterruptedException e) {
-					// NOPE
-				}
-			}
-		}
-
-		/**
-		 * Check the health of the failed node
-		 * 
-		 * @param node
-		 * @return <tt>true</tt> if the node is reachable else <tt>false</tt>
-		 */
-		public boolean checkHealth(Node node) {
-			return (node == null) ? false : ((connectionManager != null) ? checkHealth0(node)
-					: checkHealth1(node));
-		}
-
-		/**
-		 * Check node health using the connection manager
-		 * 
-		 * @param node
-		 *            the node to check
-		 * @return <tt>true</tt> if the node is reachable else <tt>false</tt>
-		 */
-		private boolean checkHealth0(Node node) {
-
-			try {
-				NioChannel channel = connectionManager.getChannel(node.getHostname(),
-						node.getPort());
-
-				if (channel.isOpen()) {
-					if (!node.isOptionsEnabled()) {
-						return true;
-					}
-
-					// Put the channel in the recycled channel's list
-					buffer.clear();
-					buffer.put(getRequest(node).getBytes()).flip();
-
-					channel.writeBytes(buffer);
-					buffer.clear();
-					int n = channel.readBytes(buffer);
-					if (n < 0) {
-						throw new ClosedChannelException();
-					} else {
-						buffer.flip();
-						byte bytes[] = new byte[n];
-						buffer.get(bytes);
-						String response = new String(bytes);
-						// Just retrieve the response line
-						String tab[] = response.split("\r\n")[0].split("\\s+");
-						int status = Integer.valueOf(tab[1]);
-						String phrase = tab[2];
-						if (status == 200 && "OK".equalsIgnoreCase(phrase)) {
-							connectionManager.recycle(node, channel);
-							return true;
-						} else if (status == 501) {
-							node.setOptionsEnabled(false);
-							connectionManager.recycle(node, channel);
-							return true;
-						}
-					}
-				} else {
-					channel.setOption(StandardSocketOptions.SO_LINGER, 0);
-					channel.close();
-					return false;
-				}
-			} catch (Throwable th) {
-				// NOPE
-				return false;
-			}
-
-			return false;
-		}
-
-		/**
-		 * Check node health using standard Java Socket API
-		 * 
-		 * @param node
-		 *            the node to check
-		 * @return <tt>true</tt> if the node is reachable else <tt>false</tt>
-		 */
-		private boolean checkHealth1(Node node) {
-
-			boolean ok = false;
-			java.net.Socket socket = null;
-			try {
-				socket = new java.net.Socket(node.getHostname(), node.getPort());
-				if (!node.isOptionsEnabled()) {
-					ok = true;
-				} else {
-					OutputStream os = socket.getOutputStream();
-					os.write(getRequest(node).getBytes());
-					os.flush();
-					InputStream is = socket.getInputStream();
-					BufferedReader br = new BufferedReader(new InputStreamReader(is));
-					// Read the response line
-					String responseLine = br.readLine();
-					if (responseLine == null) {
-						throw new IOException("The Socket is closed");
-					}
-
-					String tab[] = responseLine.split("\\s+");
-					int status = Integer.valueOf(tab[1]);
-					String phrase = tab[2];
-
-					if (status == 200 && "OK".equalsIgnoreCase(phrase)) {
-						ok = true;
-					} else if (status == 501) {
-						node.setOptionsEnabled(false);
-						ok = true;
-					}
-				}
-			} catch (Throwable e) {
-				// Ignore
-				e.printStackTrace();
-			} finally {
-				if (socket != null) {
-					try {
-						socket.setSoLinger(true, 0);
-						socket.close();
-					} catch (Throwable e) {
-						// Ignore
-					}
-				}
-			}
-
-			System.out.println("OK = " + ok);
-
-			return ok;
-		}
-
-		/**
-		 * Build the request to send to the specified node
-		 * 
-		 * @param node
-		 *            the destination host
-		 * @return the request to send to the node
-		 */
-		private String getRequest(Node node) {
-			return "OPTIONS * HTTP/1.1\r\nHost: " + node.getHostname() + ":" + node.getPort()
-					+ "\r\n\r\n";
-		}
-
-	}
 }
@@ -21,12 +21,18 @@
  */
 package org.jboss.cluster.proxy;
 
-import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousChannelGroup;
-import java.util.Collection;
+import java.nio.channels.CompletionHandler;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.LifeCycleServiceAdapter;
 import org.apache.tomcat.util.net.NioChannel;
@@ -37,7 +43,11 @@ import org.jboss.logging.Logger;
 
 /**
  * {@code ConnectionManager}
- * 
+ * <p>
+ * Manages the connections to the nodes. The connections of each node are kept
+ * in a bounded {@link ConnectionPool} and the idle connections are evicted in
+ * background.
+ * </p>
  * Created on Jun 20, 2012 at 3:25:09 PM
  * 
  * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
@@ -45,11 +55,45 @@ import org.jboss.logging.Logger;
 public class ConnectionManager extends LifeCycleServiceAdapter {
 
 	private static final Logger logger = Logger.getLogger(ConnectionManager.class);
-	private ConcurrentHashMap<String, ConcurrentLinkedQueue<NioChannel>> connections;
+	private ConcurrentHashMap<String, ConnectionPool> pools;
 	private NioChannelFactory factory;
+	private final AtomicInteger totalConnections = new AtomicInteger(0);
+	private final AtomicInteger waiters = new AtomicInteger(0);
+	private int maxTotalConnections = Constants.DEFAULT_MAX_TOTAL_CONNECTIONS;
+	private int maxNodeConnections = Constants.DEFAULT_MAX_NODE_CONNECTIONS;
+	private int defaultSmax = Constants.DEFAULT_SMAX;
+	private int evictionInterval = Constants.DEFAULT_EVICTION_INTERVAL;
+	private int connectTimeout = Constants.DEFAULT_CONNECT_TIMEOUT;
+	private int keepAliveTimeout = Constants.DEFAULT_KEEP_ALIVE_TIMEOUT;
+	private int minIdle = Constants.DEFAULT_MIN_IDLE;
+	private int waitWorker = Constants.DEFAULT_WAIT_WORKER;
+	private ScheduledThreadPoolExecutor scheduler;
+	private volatile boolean running = false;
 
 	private NodeService nodeService;
 
+	/**
+	 * Puts the connections opened by {@link #prewarm(Node)} in the idle
+	 * connections of the node pool
+	 */
+	private final CompletionHandler<NioChannel, ConnectionPool> prewarmHandler = new CompletionHandler<NioChannel, ConnectionPool>() {
+
+		@Override
+		public void completed(NioChannel channel, ConnectionPool pool) {
+			if (!handOff(pool, channel)) {
+				pool.offer(channel);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, ConnectionPool pool) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Unable to open connection to node " + pool.getNode().getJvmRoute(),
+						exc);
+			}
+		}
+	};
+
 	/**
 	 * Create a new instance of {@code ConnectionManager}
 	 */
@@ -72,117 +116,332 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 		String secureStr = System.getProperty(Constants.SECURE_PROP_NAME, "false");
 		boolean secure = Boolean.valueOf(secureStr).booleanValue();
 
-		int nThreads = Constants.DEFAULT_MAX_THREADS;
-		String str = System.getProperty(Constants.MAX_THREAD_NAME);
-		if (str != null) {
-			try {
-				nThreads = Integer.valueOf(str);
-			} catch (NumberFormatException e) {
-				logger.warn(e.getMessage());
-			}
-		}
-
+		int nThreads = getIntProperty(Constants.MAX_THREAD_NAME, Constants.DEFAULT_MAX_THREADS);
 		logger.info("Configure max thread number for nodes : " + nThreads);
 
+		this.maxTotalConnections = getIntProperty(Constants.MAX_TOTAL_CONNECTIONS_NAME,
+				Constants.DEFAULT_MAX_TOTAL_CONNECTIONS);
+		this.maxNodeConnections = getIntProperty(Constants.MAX_NODE_CONNECTIONS_NAME,
+				Constants.DEFAULT_MAX_NODE_CONNECTIONS);
+		this.defaultSmax = getIntProperty(Constants.SMAX_NAME, Constants.DEFAULT_SMAX);
+		this.evictionInterval = getIntProperty(Constants.EVICTION_INTERVAL_NAME,
+				Constants.DEFAULT_EVICTION_INTERVAL);
+		this.connectTimeout = getIntProperty(Constants.CONNECT_TIMEOUT_NAME,
+				Constants.DEFAULT_CONNECT_TIMEOUT);
+		this.keepAliveTimeout = getIntProperty(Constants.KEEP_ALIVE_TIMEOUT_NAME,
+				Constants.DEFAULT_KEEP_ALIVE_TIMEOUT);
+		this.minIdle = getIntProperty(Constants.MIN_IDLE_NAME, Constants.DEFAULT_MIN_IDLE);
+		this.waitWorker = getIntProperty(Constants.WAIT_WORKER_NAME, Constants.DEFAULT_WAIT_WORKER);
+		logger.info("Configure max connections for nodes : " + this.maxTotalConnections
+				+ " (per node : " + this.maxNodeConnections + ")");
+
 		AsynchronousChannelGroup channelGroup = AsynchronousChannelGroup.withFixedThreadPool(
 				nThreads, Executors.defaultThreadFactory());
 		this.factory = NioChannelFactory.createNioChannelFactory(channelGroup, secure);
 		this.factory.init();
-		this.connections = new ConcurrentHashMap<>();
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ConnectionManagerScheduler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		this.pools = new ConcurrentHashMap<>();
 		setInitialized(true);
 		logger.info("Connection Manager Initialized");
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.LifeCycleServiceAdapter#start()
+	 */
+	@Override
+	public synchronized void start() throws Exception {
+		if (!isInitialized()) {
+			init();
+		}
+		if (isStarted()) {
+			return;
+		}
+		this.running = true;
+		// Start new thread for idle connection eviction
+		Thread t = new Thread(new ConnectionEvictor(), "ConnectionEvictor");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+		setStarted(true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.LifeCycleServiceAdapter#stop()
+	 */
+	@Override
+	public synchronized void stop() throws Exception {
+		this.running = false;
+		setStarted(false);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see org.apache.LifeCycleServiceAdapter#destroy()
 	 */
-	public void destroy() throws Exception {
+	public synchronized void destroy() throws Exception {
+		if (!isInitialized()) {
+			return;
+		}
 		logger.info("Destroying Connection Manager");
 		this.stop();
+		this.scheduler.shutdownNow();
 		this.factory.destroy();
-		for (Collection<NioChannel> cl : this.connections.values()) {
-			for (NioChannel nch : cl) {
-				try {
-					nch.close();
-				} catch (IOException e) {
-					// NOPE
-				}
-			}
-			cl.clear();
+		for (ConnectionPool pool : this.pools.values()) {
+			pool.destroy();
 		}
 
-		this.connections.clear();
-		this.connections = null;
+		this.pools.clear();
+		this.pools = null;
 		setInitialized(false);
 		logger.info("Connection Manager Destroyed");
 	}
 
 	/**
-	 * Try to retrieve a channel connected to the specified node
+	 * Try to retrieve asynchronously a channel connected to the specified node.
+	 * If there is an idle connection to the node, the handler is notified
+	 * immediately by the caller thread. Else a new connection is opened without
+	 * blocking and the handler is notified once it is established, or when the
+	 * connect operation fails or times out.
+	 * <p>
+	 * If the node or the global connection limit is reached, the request waits
+	 * at most <tt>waitWorker</tt> milliseconds for a connection of the node to
+	 * be recycled or released. The handler receives a <tt>null</tt> channel if
+	 * no connection becomes available in time.
+	 * </p>
 	 * 
-	 * @param node the targeted node
-	 * @return a channel
-	 * @throws Exception
+	 * @param node
+	 *            the targeted node
+	 * @param attachment
+	 *            the object to attach to the operation; can be {@code null}
+	 * @param handler
+	 *            the handler for consuming the result
 	 */
-	public NioChannel getChannel(Node node) throws Exception {
+	public <A> void getChannel(Node node, A attachment,
+			CompletionHandler<NioChannel, ? super A> handler) {
 		if (node == null) {
-			return null;
+			handler.completed(null, attachment);
+			return;
+		}
+		ConnectionPool pool = getPool(node);
+		NioChannel channel = pool.poll();
+		if (channel != null) {
+			handler.completed(channel, attachment);
+			return;
 		}
-		checkJvmRoute(node.getJvmRoute());
-		NioChannel channel = null;
-		do {
-			channel = this.connections.get(node.getJvmRoute()).poll();
-		} while (channel != null && channel.isClosed());
 
-		if (channel == null) {
-			// This means that there is no connection available to the node, so
-			// we should create a new connection.
-			channel = connect(node);
+		// This means that there is no connection available to the node, so
+		// we should create a new connection if the limits allow it.
+		if (!pool.reserve()) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Connection limit reached for node " + node.getJvmRoute());
+			}
+			if (!await(pool, attachment, handler)) {
+				handler.completed(null, attachment);
+			}
+			return;
 		}
 
-		return channel;
+		connect(pool, attachment, handler);
 	}
 
 	/**
-	 * Try to connect to the remote host
+	 * Open asynchronously a new connection to the specified node, without
+	 * using its idle connections. The connection counts in the node limits like
+	 * any other connection, and must be recycled or closed by the caller. The
+	 * handler receives a <tt>null</tt> channel if a limit is reached.
 	 * 
-	 * @param hostname
-	 *            the host name/IP
-	 * @param port
-	 *            the port number
-	 * @return
-	 * @throws Exception
+	 * @param node
+	 *            the targeted node
+	 * @param attachment
+	 *            the object to attach to the operation; can be {@code null}
+	 * @param handler
+	 *            the handler for consuming the result
+	 */
+	public <A> void connect(Node node, A attachment,
+			CompletionHandler<NioChannel, ? super A> handler) {
+		ConnectionPool pool = (node == null) ? null : getPool(node);
+		if (pool == null || !pool.reserve()) {
+			handler.completed(null, attachment);
+			return;
+		}
+		connect(pool, attachment, handler);
+	}
+
+	/**
+	 * Park the request in the queue of the requests waiting for a connection
+	 * of the pool
+	 * 
+	 * @param pool
+	 *            the node pool
+	 * @param attachment
+	 *            the object to attach to the operation; can be {@code null}
+	 * @param handler
+	 *            the handler for consuming the result
+	 * @return <tt>true</tt> if the request is waiting, <tt>false</tt> if the
+	 *         wait is disabled or the queue is full
+	 */
+	private <A> boolean await(ConnectionPool pool, A attachment,
+			CompletionHandler<NioChannel, ? super A> handler) {
+		int wait = pool.getNode().getWaitWorker();
+		if (wait <= 0) {
+			wait = this.waitWorker;
+		}
+		if (wait <= 0) {
+			return false;
+		}
+
+		WaitHandler<A> waiter = new WaitHandler<>(pool, attachment, handler);
+		waiter.timeout = this.scheduler.schedule(waiter, wait, TimeUnit.MILLISECONDS);
+		if (!pool.addWaiter(waiter)) {
+			waiter.timeout.cancel(false);
+			return false;
+		}
+		this.waiters.incrementAndGet();
+		// A slot may have been released meanwhile
+		released(pool);
+		return true;
+	}
+
+	/**
+	 * Hand the recycled connection over to the oldest request waiting for a
+	 * connection of the pool, if any
+	 * 
+	 * @param pool
+	 *            the node pool
+	 * @param channel
+	 *            the recycled connection
+	 * @return <tt>true</tt> if a waiting request took the connection, else
+	 *         <tt>false</tt>
+	 */
+	private boolean handOff(ConnectionPool pool, NioChannel channel) {
+		if (!pool.hasWaiters() || !channel.isOpen() || !pool.contains(channel)) {
+			return false;
+		}
+		ConnectionPool.Waiter waiter = null;
+		while ((waiter = pool.pollWaiter()) != null) {
+			if (waiter.resume(channel)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Notify that a slot of the pool was released. The oldest request waiting
+	 * for a connection of the pool, if any, opens a new connection. As the slot
+	 * also counts in the global connection limit, the requests waiting for the
+	 * other nodes get it when no request of the pool can use it.
+	 * 
+	 * @param pool
+	 *            the node pool
 	 */
-	public NioChannel getChannel(String hostname, int port) throws Exception {
-		return connect(hostname, port);
+	protected void released(ConnectionPool pool) {
+		if (this.waiters.get() == 0 || wakeUp(pool)) {
+			return;
+		}
+		for (ConnectionPool p : this.pools.values()) {
+			if (p != pool && wakeUp(p)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Let the oldest request waiting for a connection of the pool, if any,
+	 * open a new connection
+	 * 
+	 * @param pool
+	 *            the node pool
+	 * @return <tt>true</tt> if a waiting request took a slot, else
+	 *         <tt>false</tt>
+	 */
+	private boolean wakeUp(ConnectionPool pool) {
+		if (!pool.hasWaiters()) {
+			return false;
+		}
+		ConnectionPool.Waiter waiter = pool.pollWaiter();
+		if (waiter == null) {
+			return false;
+		}
+		if (!pool.reserve()) {
+			pool.requeueWaiter(waiter);
+			return false;
+		}
+		if (!waiter.resume(null)) {
+			// The waiter has expired, give the slot to the next one
+			pool.cancel();
+		}
+		return true;
 	}
 
 	/**
-	 * Try to connect to the specified node
+	 * Open asynchronously the connections missing to reach the minimum number
+	 * of idle connections to the specified node. This method is called when
+	 * the node becomes available, so that its first requests do not pay the
+	 * connect latency. It returns immediately, the connections are added to
+	 * the node pool once established.
 	 * 
 	 * @param node
-	 *            the node to which the channel will be connected
-	 * @return a new connection to the node
-	 * @throws Exception
+	 *            the node to warm up
 	 */
-	private NioChannel connect(Node node) throws Exception {
-		return connect(node.getHostname(), node.getPort());
+	public void prewarm(Node node) {
+		if (node == null || this.minIdle <= 0 || !isInitialized()) {
+			return;
+		}
+
+		ConnectionPool pool = getPool(node);
+		int min = Math.min(this.minIdle, Math.min(pool.getSmax(), pool.getMaxConnections()));
+		int n = min - pool.getSize();
+		if (n > 0 && logger.isDebugEnabled()) {
+			logger.debug("Opening " + n + " connection(s) to node " + node.getJvmRoute());
+		}
+		for (int i = 0; i < n && pool.reserve(); i++) {
+			connect(pool, pool, this.prewarmHandler);
+		}
 	}
 
 	/**
-	 * Try to connect to the remote host specified by the host name and the port
-	 * number
+	 * Open asynchronously a new connection to the node of the pool. A slot
+	 * must have been reserved in the pool before calling this method.
 	 * 
-	 * @param hostname
-	 * @param port
-	 * @return a new {@link NioChannel} representing the connection to the
-	 *         remote host
-	 * @throws Exception
+	 * @param pool
+	 *            the node pool
+	 * @param attachment
+	 *            the object to attach to the operation; can be {@code null}
+	 * @param handler
+	 *            the handler for consuming the result
 	 */
-	private NioChannel connect(String hostname, int port) throws Exception {
-		return this.factory.connect(hostname, port);
+	private <A> void connect(ConnectionPool pool, A attachment,
+			CompletionHandler<NioChannel, ? super A> handler) {
+		Node node = pool.getNode();
+		ConnectHandler<A> connectHandler = new ConnectHandler<>(pool, handler);
+		try {
+			connectHandler.channel = this.factory.connect(
+					new InetSocketAddress(node.getHostname(), node.getPort()), attachment,
+					connectHandler);
+		} catch (Throwable th) {
+			connectHandler.failed(th, attachment);
+			return;
+		}
+		if (this.connectTimeout > 0 && !connectHandler.get()) {
+			connectHandler.attachment = attachment;
+			connectHandler.timeout = this.scheduler.schedule(connectHandler, this.connectTimeout,
+					TimeUnit.MILLISECONDS);
+		}
 	}
 
 	/**
@@ -192,12 +451,34 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 	 *            the node to which the channel is connected
 	 * @param channel
 	 *            the channel to be recycled
-	 * @see {@link #recycle(String, NioChannel)}
 	 */
 	public void recycle(Node node, NioChannel channel) {
-		if (node != null) {
-			recycle(node.getJvmRoute(), channel);
+		recycle(node, channel, -1);
+	}
+
+	/**
+	 * Recycle the node connection for next usage
+	 * 
+	 * @param node
+	 *            the node to which the channel is connected
+	 * @param channel
+	 *            the channel to be recycled
+	 * @param keepAliveTimeout
+	 *            the time in milliseconds during which the node keeps the
+	 *            connection open (as announced by the <tt>Keep-Alive</tt>
+	 *            response header), or <tt>-1</tt> if unknown
+	 */
+	public void recycle(Node node, NioChannel channel, long keepAliveTimeout) {
+		if (channel == null) {
+			// NOTHING TO DO
+			return;
+		}
+		if (node == null) {
+			close(channel);
+			return;
 		}
+
+		recycle(getPool(node), channel, keepAliveTimeout);
 	}
 
 	/**
@@ -214,9 +495,47 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 			return;
 		}
 
-		if (channel.isOpen()) {
-			// checkJvmRoute(jvmRoute);
-			this.connections.get(jvmRoute).offer(channel);
+		ConnectionPool pool = this.pools.get(jvmRoute);
+		if (pool != null) {
+			recycle(pool, channel, -1);
+		} else {
+			close(channel);
+		}
+	}
+
+	/**
+	 * Hand the channel off to a waiting request or return it to the pool
+	 * 
+	 * @param pool
+	 *            the pool of the node to which the channel is connected
+	 * @param channel
+	 *            the channel to be recycled
+	 * @param keepAliveTimeout
+	 *            the keep-alive timeout announced by the node, or <tt>-1</tt>
+	 *            if unknown
+	 */
+	private void recycle(ConnectionPool pool, NioChannel channel, long keepAliveTimeout) {
+		if (!handOff(pool, channel)) {
+			pool.offer(channel, keepAliveTimeout);
+		}
+	}
+
+	/**
+	 * Close the channel connected to the specified node and release its slot in
+	 * the node pool
+	 * 
+	 * @param node
+	 *            the node to which the channel is connected
+	 * @param channel
+	 *            the channel to close
+	 */
+	public void close(Node node, NioChannel channel) {
+		if (channel == null) {
+			return;
+		}
+		ConnectionPool pool = (node == null) ? null : this.pools.get(node.getJvmRoute());
+		if (pool != null) {
+			pool.discard(channel);
 		} else {
 			close(channel);
 		}
@@ -236,7 +555,9 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 			channel.close();
 		} catch (Exception exp) {
 			// NOPE
-			exp.printStackTrace();
+			if (logger.isDebugEnabled()) {
+				logger.debug(exp, exp);
+			}
 		}
 	}
 
@@ -248,30 +569,121 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 	 * @return
 	 */
 	public boolean jvmRouteExist(String jvmRoute) {
-		return this.connections.containsKey(jvmRoute);
+		return this.pools.containsKey(jvmRoute);
 	}
 
 	/**
-	 * Remove the JVMRoute from the list of registered JVMRoutes
+	 * Remove the JVMRoute from the list of registered JVMRoutes and close all
+	 * its connections
 	 * 
 	 * @param jvmRoute
 	 */
 	public void removeJvmRoute(String jvmRoute) {
-		this.connections.remove(jvmRoute);
+		ConnectionPool pool = this.pools.remove(jvmRoute);
+		if (pool != null) {
+			pool.destroy();
+		}
 	}
 
 	/**
-	 * Check if there is already a connection list tied to the specified
-	 * {@code jvmRoute}. If there is no list, then a new list is created and
-	 * attached with it.
+	 * Retrieve the connection pool tied to the specified node. If there is no
+	 * pool, then a new pool is created and attached with it.
 	 * 
-	 * @param jvmRoute
-	 *            the jvmRoute (it represents the ID of a node)
+	 * @param node
+	 *            the node
+	 * @return the connection pool of the node
 	 */
-	protected void checkJvmRoute(String jvmRoute) {
-		if (this.connections.get(jvmRoute) == null) {
-			this.connections.put(jvmRoute, new ConcurrentLinkedQueue<NioChannel>());
+	protected ConnectionPool getPool(Node node) {
+		ConnectionPool pool = this.pools.get(node.getJvmRoute());
+		if (pool == null) {
+			pool = new ConnectionPool(this, node);
+			ConnectionPool tmp = this.pools.putIfAbsent(node.getJvmRoute(), pool);
+			if (tmp != null) {
+				pool = tmp;
+			}
 		}
+		if (pool.getNode() != node) {
+			// The node configuration was updated
+			pool.setNode(node);
+		}
+		return pool;
+	}
+
+	/**
+	 * Reserve a slot in the global connection limit
+	 * 
+	 * @return <tt>true</tt> if a new connection can be opened, else
+	 *         <tt>false</tt>
+	 */
+	protected boolean reserve() {
+		int n;
+		do {
+			n = this.totalConnections.get();
+			if (n >= this.maxTotalConnections) {
+				return false;
+			}
+		} while (!this.totalConnections.compareAndSet(n, n + 1));
+
+		return true;
+	}
+
+	/**
+	 * Release a slot reserved by {@link #reserve()}
+	 */
+	protected void release() {
+		this.totalConnections.decrementAndGet();
+	}
+
+	/**
+	 * @return the number of connections opened to all nodes
+	 */
+	public int getTotalConnections() {
+		return this.totalConnections.get();
+	}
+
+	/**
+	 * @return the maximum number of connections opened to all nodes
+	 */
+	public int getMaxTotalConnections() {
+		return this.maxTotalConnections;
+	}
+
+	/**
+	 * @return the default maximum number of connections opened to a node
+	 */
+	public int getMaxNodeConnections() {
+		return this.maxNodeConnections;
+	}
+
+	/**
+	 * @return the maximum idle time in milliseconds of a pooled connection, 0
+	 *         means no limit
+	 */
+	public int getKeepAliveTimeout() {
+		return this.keepAliveTimeout;
+	}
+
+	/**
+	 * @return the minimum number of idle connections opened to a node when it
+	 *         becomes available
+	 */
+	public int getMinIdle() {
+		return this.minIdle;
+	}
+
+	/**
+	 * @return the default max time in milliseconds a request waits for a
+	 *         connection when the connection limits are reached
+	 */
+	public int getWaitWorker() {
+		return this.waitWorker;
+	}
+
+	/**
+	 * @return the default soft max of idle connections of a node
+	 */
+	public int getDefaultSmax() {
+		return this.defaultSmax;
 	}
 
 	/**
@@ -288,4 +700,250 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 	public void setNodeService(NodeService nodeService) {
 		this.nodeService = nodeService;
 	}
+
+	/**
+	 * Read an integer system property
+	 * 
+	 * @param name
+	 *            the property name
+	 * @param defaultValue
+	 *            the value to use if the property is not set or invalid
+	 * @return the property value
+	 */
+	private static int getIntProperty(String name, int defaultValue) {
+		String str = System.getProperty(name);
+		if (str != null) {
+			try {
+				return Integer.valueOf(str.trim());
+			} catch (NumberFormatException e) {
+				logger.warn(e.getMessage());
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * {@code ConnectHandler}
+	 * <p>
+	 * Completes an asynchronous connect operation, registers the new channel in
+	 * the node pool and notifies the caller handler exactly once, whichever
+	 * comes first of the connect completion and the connect timeout.
+	 * </p>
+	 * 
+	 * @param <A>
+	 *            the attachment type
+	 */
+	private class ConnectHandler<A> extends AtomicBoolean implements
+			CompletionHandler<NioChannel, A>, Runnable {
+
+		private static final long serialVersionUID = 1L;
+		private final ConnectionPool pool;
+		private final CompletionHandler<NioChannel, ? super A> handler;
+		private volatile NioChannel channel;
+		private volatile A attachment;
+		private volatile ScheduledFuture<?> timeout;
+
+		/**
+		 * Create a new instance of {@code ConnectHandler}
+		 * 
+		 * @param pool
+		 * @param handler
+		 */
+		ConnectHandler(ConnectionPool pool, CompletionHandler<NioChannel, ? super A> handler) {
+			this.pool = pool;
+			this.handler = handler;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.nio.channels.CompletionHandler#completed(java.lang.Object,
+		 * java.lang.Object)
+		 */
+		@Override
+		public void completed(NioChannel ch, A attach) {
+			if (!compareAndSet(false, true)) {
+				// The connect operation timed out
+				close(ch);
+				return;
+			}
+			cancelTimeout();
+			this.pool.register(ch);
+			this.handler.completed(ch, attach);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.nio.channels.CompletionHandler#failed(java.lang.Throwable,
+		 * java.lang.Object)
+		 */
+		@Override
+		public void failed(Throwable exc, A attach) {
+			if (compareAndSet(false, true)) {
+				cancelTimeout();
+				this.pool.cancel();
+				this.handler.failed(exc, attach);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			if (compareAndSet(false, true)) {
+				// Abort the pending connect operation
+				close(this.channel);
+				this.pool.cancel();
+				Node node = this.pool.getNode();
+				this.handler.failed(new SocketTimeoutException("Connect to " + node.getHostname()
+						+ ":" + node.getPort() + " timed out"), this.attachment);
+			}
+		}
+
+		/**
+		 * Cancel the connect timeout task, if any
+		 */
+		private void cancelTimeout() {
+			ScheduledFuture<?> future = this.timeout;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * {@code ConnectionEvictor}
+	 * <p>
+	 * Periodically closes the idle connections over the node <tt>smax</tt>
+	 * which are unused since more than the node <tt>ttl</tt>.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+	 */
+	private class ConnectionEvictor implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					Thread.sleep(evictionInterval);
+				} catch (InterruptedException e) {
+					// NOPE
+				}
+				if (!running || pools == null) {
+					break;
+				}
+
+				long now = System.currentTimeMillis();
+				for (ConnectionPool pool : pools.values()) {
+					try {
+						int n = pool.evict(now);
+						if (n > 0 && logger.isDebugEnabled()) {
+							logger.debug(n + " connection(s) evicted from node "
+									+ pool.getNode().getJvmRoute());
+						}
+					} catch (Throwable th) {
+						logger.error(th, th);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@code WaitHandler}
+	 * <p>
+	 * A request waiting for a connection of a node pool. It is resumed with a
+	 * recycled connection or opens a new one when a slot is released. If
+	 * nothing happens before the timeout, the handler receives a <tt>null</tt>
+	 * channel.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+	 */
+	private class WaitHandler<A> extends ConnectionPool.Waiter implements Runnable {
+
+		private static final long serialVersionUID = 1L;
+		private final ConnectionPool pool;
+		private final A attachment;
+		private final CompletionHandler<NioChannel, ? super A> handler;
+		private volatile ScheduledFuture<?> timeout;
+
+		/**
+		 * Create a new instance of {@code WaitHandler}
+		 * 
+		 * @param pool
+		 * @param attachment
+		 * @param handler
+		 */
+		WaitHandler(ConnectionPool pool, A attachment,
+				CompletionHandler<NioChannel, ? super A> handler) {
+			this.pool = pool;
+			this.attachment = attachment;
+			this.handler = handler;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see
+		 * org.jboss.cluster.proxy.ConnectionPool.Waiter#resume(org.apache.tomcat
+		 * .util.net.NioChannel)
+		 */
+		@Override
+		public boolean resume(NioChannel channel) {
+			if (!compareAndSet(false, true)) {
+				return false;
+			}
+			waiters.decrementAndGet();
+			ScheduledFuture<?> future = this.timeout;
+			if (future != null) {
+				future.cancel(false);
+			}
+			if (channel != null) {
+				this.handler.completed(channel, this.attachment);
+			} else {
+				connect(this.pool, this.attachment, this.handler);
+			}
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see org.jboss.cluster.proxy.ConnectionPool.Waiter#expire()
+		 */
+		@Override
+		public boolean expire() {
+			if (!compareAndSet(false, true)) {
+				return false;
+			}
+			waiters.decrementAndGet();
+			this.pool.removeWaiter(this);
+			if (logger.isDebugEnabled()) {
+				logger.debug("No connection available for node " + this.pool.getNode().getJvmRoute());
+			}
+			this.handler.completed(null, this.attachment);
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			expire();
+		}
+	}
 }
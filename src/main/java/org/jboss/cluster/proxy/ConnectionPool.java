@@ -0,0 +1,531 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tomcat.util.net.NioChannel;
+import org.jboss.cluster.proxy.container.Node;
+
+/**
+ * {@code ConnectionPool}
+ * <p>
+ * Bounded pool of the connections opened to a single node. Idle connections
+ * are kept in LIFO order so that the most recently used ones are reused first
+ * and the oldest ones can be evicted by the {@link ConnectionManager}.
+ * </p>
+ * <p>
+ * To avoid the contention of all the I/O threads on a single queue, the idle
+ * connections are spread over several stripes (one per available processor).
+ * A thread always recycles to and polls from its own stripe, and steals from
+ * the sibling stripes only when its own stripe is empty.
+ * </p>
+ * <ul>
+ * <li><tt>smax</tt>: soft max of idle connections, idle connections over that
+ * limit are closed after <tt>ttl</tt></li>
+ * <li><tt>maxConnections</tt>: hard max of opened connections (idle and busy)
+ * to the node</li>
+ * </ul>
+ * The node values are used when they are set, else the connection manager
+ * defaults apply.
+ * <p>
+ * When the limits are reached, the requests may wait in a bounded queue of
+ * {@link Waiter}s until a connection is recycled or a slot is released.
+ * </p>
+ *
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class ConnectionPool {
+
+	private final ConnectionManager manager;
+	private volatile Node node;
+	/**
+	 * All the opened connections (idle and busy) of this pool
+	 */
+	private final ConcurrentHashMap<NioChannel, PooledChannel> channels = new ConcurrentHashMap<>();
+	/**
+	 * The stripes of idle connections
+	 */
+	private final Stripe stripes[];
+	private final int mask;
+	private final AtomicInteger size = new AtomicInteger(0);
+	/**
+	 * The requests waiting for a connection, the oldest first
+	 */
+	private final ConcurrentLinkedDeque<Waiter> waiters = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger waiterCount = new AtomicInteger(0);
+
+	/**
+	 * Create a new instance of {@code ConnectionPool}
+	 *
+	 * @param manager
+	 *            the connection manager owning this pool
+	 * @param node
+	 *            the node to which the connections are opened
+	 */
+	public ConnectionPool(ConnectionManager manager, Node node) {
+		this.manager = manager;
+		this.node = node;
+		int n = 1;
+		while (n < Runtime.getRuntime().availableProcessors()) {
+			n <<= 1;
+		}
+		this.stripes = new Stripe[n];
+		for (int i = 0; i < n; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		this.mask = n - 1;
+	}
+
+	/**
+	 * @return the index of the stripe of the current thread
+	 */
+	private int stripeIndex() {
+		long id = Thread.currentThread().getId();
+		return (int) (id ^ (id >>> 16)) & this.mask;
+	}
+
+	/**
+	 * Retrieve an idle connection from the pool
+	 *
+	 * @return an idle connection or <tt>null</tt> if there is no idle
+	 *         connection available
+	 */
+	public NioChannel poll() {
+		long now = System.currentTimeMillis();
+		int index = stripeIndex();
+		NioChannel channel = poll(this.stripes[index], now);
+		// Steal from the sibling stripes
+		for (int i = 1; channel == null && i < this.stripes.length; i++) {
+			channel = poll(this.stripes[(index + i) & this.mask], now);
+		}
+
+		return channel;
+	}
+
+	/**
+	 * Retrieve an idle connection from the specified stripe
+	 *
+	 * @param stripe
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return an idle connection or <tt>null</tt> if the stripe is empty
+	 */
+	private NioChannel poll(Stripe stripe, long now) {
+		PooledChannel pc = null;
+		while ((pc = stripe.idle.pollFirst()) != null) {
+			stripe.count.decrementAndGet();
+			if (pc.channel.isOpen() && !isStale(pc, now)) {
+				return pc.channel;
+			}
+			// The node may have already closed the connection
+			discard(pc.channel);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reserve a slot for a new connection. If the reservation succeeds, the
+	 * caller must either {@link #register(NioChannel)} the new connection or
+	 * {@link #cancel()} the reservation.
+	 *
+	 * @return <tt>true</tt> if the node and global limits allow to open a new
+	 *         connection, else <tt>false</tt>
+	 */
+	public boolean reserve() {
+		int max = getMaxConnections();
+		int n;
+		do {
+			n = this.size.get();
+			if (n >= max) {
+				return false;
+			}
+		} while (!this.size.compareAndSet(n, n + 1));
+
+		if (!this.manager.reserve()) {
+			this.size.decrementAndGet();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Cancel a reservation made by {@link #reserve()}
+	 */
+	public void cancel() {
+		this.size.decrementAndGet();
+		this.manager.release();
+		this.manager.released(this);
+	}
+
+	/**
+	 * Register a new connection opened after a successful {@link #reserve()}
+	 *
+	 * @param channel
+	 *            the new connection
+	 */
+	public void register(NioChannel channel) {
+		this.channels.put(channel, new PooledChannel(channel));
+	}
+
+	/**
+	 * Put back the connection in the pool of idle connections
+	 *
+	 * @param channel
+	 *            the connection to recycle
+	 */
+	public void offer(NioChannel channel) {
+		offer(channel, -1);
+	}
+
+	/**
+	 * Put back the connection in the pool of idle connections
+	 *
+	 * @param channel
+	 *            the connection to recycle
+	 * @param keepAliveTimeout
+	 *            the time in milliseconds during which the node keeps the
+	 *            connection open, or <tt>-1</tt> if unknown
+	 */
+	public void offer(NioChannel channel, long keepAliveTimeout) {
+		if (channel.isClosed()) {
+			discard(channel);
+			return;
+		}
+		PooledChannel pc = this.channels.get(channel);
+		if (pc == null) {
+			// The connection was not opened by this pool, adopt it if the
+			// limits allow it
+			if (!reserve()) {
+				this.manager.close(channel);
+				return;
+			}
+			pc = new PooledChannel(channel);
+			this.channels.put(channel, pc);
+		}
+
+		pc.keepAliveTimeout = keepAliveTimeout;
+		pc.lastUsed = System.currentTimeMillis();
+		Stripe stripe = this.stripes[stripeIndex()];
+		stripe.count.incrementAndGet();
+		stripe.idle.offerFirst(pc);
+	}
+
+	/**
+	 * Close the connection and release its slot
+	 *
+	 * @param channel
+	 *            the connection to close
+	 */
+	public void discard(NioChannel channel) {
+		if (this.channels.remove(channel) != null) {
+			this.size.decrementAndGet();
+			this.manager.release();
+			this.manager.close(channel);
+			this.manager.released(this);
+		} else {
+			this.manager.close(channel);
+		}
+	}
+
+	/**
+	 * @param channel
+	 * @return <tt>true</tt> if the connection was opened by this pool and is
+	 *         still open, else <tt>false</tt>
+	 */
+	public boolean contains(NioChannel channel) {
+		return this.channels.containsKey(channel);
+	}
+
+	/**
+	 * Add the waiter to the queue of the requests waiting for a connection.
+	 * The queue is bounded by the max number of connections of the node.
+	 *
+	 * @param waiter
+	 * @return <tt>true</tt> if the waiter was queued, else <tt>false</tt>
+	 */
+	public boolean addWaiter(Waiter waiter) {
+		int max = getMaxConnections();
+		int n;
+		do {
+			n = this.waiterCount.get();
+			if (n >= max) {
+				return false;
+			}
+		} while (!this.waiterCount.compareAndSet(n, n + 1));
+		this.waiters.offerLast(waiter);
+		return true;
+	}
+
+	/**
+	 * Put back a waiter at the head of the queue
+	 *
+	 * @param waiter
+	 */
+	public void requeueWaiter(Waiter waiter) {
+		this.waiterCount.incrementAndGet();
+		this.waiters.offerFirst(waiter);
+	}
+
+	/**
+	 * Retrieve the oldest waiter which is still waiting
+	 *
+	 * @return the waiter or <tt>null</tt> if there is no waiting request
+	 */
+	public Waiter pollWaiter() {
+		Waiter waiter = null;
+		while ((waiter = this.waiters.pollFirst()) != null) {
+			this.waiterCount.decrementAndGet();
+			if (!waiter.get()) {
+				return waiter;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remove the waiter from the queue
+	 *
+	 * @param waiter
+	 */
+	public void removeWaiter(Waiter waiter) {
+		if (this.waiters.removeFirstOccurrence(waiter)) {
+			this.waiterCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if there are requests waiting for a connection
+	 */
+	public boolean hasWaiters() {
+		return this.waiterCount.get() > 0;
+	}
+
+	/**
+	 * Release the slots of the connections which were closed outside of the
+	 * pool, close the stale idle connections and the idle connections over
+	 * <tt>smax</tt> which were not used since more than <tt>ttl</tt>
+	 * milliseconds.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the number of connections removed from the pool
+	 */
+	public int evict(long now) {
+		int count = 0;
+		// Remove the closed idle connections first, so that they are not
+		// counted as idle connections against smax
+		for (Stripe stripe : this.stripes) {
+			Iterator<PooledChannel> it = stripe.idle.descendingIterator();
+			while (it.hasNext()) {
+				PooledChannel pc = it.next();
+				if (pc.channel.isClosed() && stripe.idle.removeLastOccurrence(pc)) {
+					stripe.count.decrementAndGet();
+					discard(pc.channel);
+					count++;
+				}
+			}
+		}
+		// The busy connections closed outside of the pool
+		for (NioChannel channel : this.channels.keySet()) {
+			if (channel.isClosed()) {
+				discard(channel);
+				count++;
+			}
+		}
+
+		int smax = getSmax();
+		long ttl = this.node.getTtl();
+		for (Stripe stripe : this.stripes) {
+			Iterator<PooledChannel> it = stripe.idle.descendingIterator();
+			while (it.hasNext()) {
+				PooledChannel pc = it.next();
+				if (!isStale(pc, now) && (getIdle() <= smax || now - pc.lastUsed < ttl)) {
+					continue;
+				}
+				if (stripe.idle.removeLastOccurrence(pc)) {
+					stripe.count.decrementAndGet();
+					discard(pc.channel);
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Check whether the idle connection was unused for longer than the node
+	 * keeps it open
+	 *
+	 * @param pc
+	 *            the idle connection
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the connection is likely to be closed by the
+	 *         node, else <tt>false</tt>
+	 */
+	private boolean isStale(PooledChannel pc, long now) {
+		long timeout = this.manager.getKeepAliveTimeout();
+		if (pc.keepAliveTimeout >= 0 && (timeout <= 0 || pc.keepAliveTimeout < timeout)) {
+			timeout = pc.keepAliveTimeout;
+		}
+		return pc.keepAliveTimeout == 0 || (timeout > 0 && now - pc.lastUsed >= timeout);
+	}
+
+	/**
+	 * Close all the connections of the pool
+	 */
+	public void destroy() {
+		Waiter waiter = null;
+		while ((waiter = pollWaiter()) != null) {
+			waiter.expire();
+		}
+		for (Stripe stripe : this.stripes) {
+			stripe.idle.clear();
+			stripe.count.set(0);
+		}
+		for (NioChannel channel : this.channels.keySet()) {
+			discard(channel);
+		}
+	}
+
+	/**
+	 * @return the soft max of idle connections
+	 */
+	public int getSmax() {
+		int smax = this.node.getSmax();
+		return smax > 0 ? smax : this.manager.getDefaultSmax();
+	}
+
+	/**
+	 * @return the hard max of opened connections
+	 */
+	public int getMaxConnections() {
+		int max = this.node.getMaxConnections();
+		return max > 0 ? max : this.manager.getMaxNodeConnections();
+	}
+
+	/**
+	 * @return the number of opened connections (idle and busy)
+	 */
+	public int getSize() {
+		return this.size.get();
+	}
+
+	/**
+	 * @return the number of idle connections
+	 */
+	public int getIdle() {
+		int n = 0;
+		for (Stripe stripe : this.stripes) {
+			n += stripe.count.get();
+		}
+		return n;
+	}
+
+	/**
+	 * @return the node
+	 */
+	public Node getNode() {
+		return this.node;
+	}
+
+	/**
+	 * Update the node. The node instance may be replaced when its
+	 * configuration changes.
+	 *
+	 * @param node
+	 *            the node to set
+	 */
+	public void setNode(Node node) {
+		this.node = node;
+	}
+
+	/**
+	 * {@code Waiter}
+	 * <p>
+	 * A request waiting for a connection. The flag is set once the waiter is
+	 * resumed or expired, so that only one of them happens.
+	 * </p>
+	 */
+	public static abstract class Waiter extends AtomicBoolean {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Resume the request with a connection of the pool
+		 *
+		 * @param channel
+		 *            the connection, or <tt>null</tt> if a slot is reserved
+		 *            for a new connection
+		 * @return <tt>false</tt> if the waiter has already expired, else
+		 *         <tt>true</tt>
+		 */
+		public abstract boolean resume(NioChannel channel);
+
+		/**
+		 * Give up waiting
+		 *
+		 * @return <tt>false</tt> if the waiter has already been resumed, else
+		 *         <tt>true</tt>
+		 */
+		public abstract boolean expire();
+	}
+
+	/**
+	 * {@code Stripe}
+	 *
+	 * The idle connections of a stripe, the most recently used first
+	 */
+	private static class Stripe {
+		private final ConcurrentLinkedDeque<PooledChannel> idle = new ConcurrentLinkedDeque<>();
+		private final AtomicInteger count = new AtomicInteger(0);
+	}
+
+	/**
+	 * {@code PooledChannel}
+	 *
+	 * Holds the pool related informations of a connection
+	 */
+	private static class PooledChannel {
+		private final NioChannel channel;
+		private volatile long lastUsed;
+		private volatile long keepAliveTimeout = -1;
+
+		/**
+		 * Create a new instance of {@code PooledChannel}
+		 *
+		 * @param channel
+		 */
+		PooledChannel(NioChannel channel) {
+			this.channel = channel;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+}
@@ -49,7 +49,329 @@ public interface Constants {
 	public static final String MAX_THREAD_NAME = "org.jboss.cluster.proxy.MAX_THREADS";
 
 	/**
-	 * 
+	 * Maximum number of open connections to a single node
+	 */
+	public static final String MAX_NODE_CONNECTIONS_NAME = "org.jboss.cluster.proxy.MAX_NODE_CONNECTIONS";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_NODE_CONNECTIONS = 1024;
+
+	/**
+	 * Maximum number of open connections to all nodes
+	 */
+	public static final String MAX_TOTAL_CONNECTIONS_NAME = "org.jboss.cluster.proxy.MAX_TOTAL_CONNECTIONS";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 4096;
+
+	/**
+	 * Soft maximum of idle connections per node, used when the node does not
+	 * specify its own <tt>smax</tt>
+	 */
+	public static final String SMAX_NAME = "org.jboss.cluster.proxy.SMAX";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_SMAX = 64;
+
+	/**
+	 * Number of idle connections opened to a node when it becomes available, 0
+	 * disables the connection pre-warming
+	 */
+	public static final String MIN_IDLE_NAME = "org.jboss.cluster.proxy.MIN_IDLE";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MIN_IDLE = 4;
+
+	/**
+	 * Maximum time in milliseconds a request waits for a connection to be
+	 * released when the node connection limit is reached, 0 fails the request
+	 * immediately
+	 */
+	public static final String WAIT_WORKER_NAME = "org.jboss.cluster.proxy.WAIT_WORKER";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_WAIT_WORKER = 0;
+
+	/**
+	 * Class name of the {@link org.jboss.cluster.proxy.container.NodeSelector}
+	 * used to balance the requests over the static nodes
+	 */
+	public static final String NODE_SELECTOR_NAME = "org.jboss.cluster.proxy.NODE_SELECTOR";
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_NODE_SELECTOR = "org.jboss.cluster.proxy.container.WeightedRoundRobinSelector";
+
+	/**
+	 * Duration in milliseconds of the slow start of the nodes which are
+	 * registered or recovered, during which their share of the traffic grows
+	 * linearly up to their full weight. 0 disables the slow start.
+	 */
+	public static final String SLOW_START_NAME = "org.jboss.cluster.proxy.SLOW_START";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_SLOW_START = 30000;
+
+	/**
+	 * Key of the consistent hashing selector: <tt>ip</tt>,
+	 * <tt>header:&lt;name&gt;</tt>, <tt>uri</tt> or <tt>uri:&lt;segments&gt;</tt>
+	 */
+	public static final String HASH_KEY_NAME = "org.jboss.cluster.proxy.HASH_KEY";
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_HASH_KEY = "uri";
+
+	/**
+	 * Balancing mode of the nodes registered through MCMP: <tt>LOAD</tt> (the
+	 * load factor sent by the nodes), <tt>LEAST_REQUESTS</tt> (the number of
+	 * requests in flight relatively to the load factor) or <tt>LATENCY</tt>
+	 * (the average time to first byte times the requests in flight, relatively
+	 * to the load factor). In all modes, the nodes having a load factor of 0
+	 * only receive requests when no other node is available.
+	 */
+	public static final String BALANCING_MODE_NAME = "org.jboss.cluster.proxy.BALANCING_MODE";
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_BALANCING_MODE = "LOAD";
+
+	/**
+	 * Delay in seconds between two recalculations of the balancing of the
+	 * nodes registered through MCMP
+	 */
+	public static final String LBSTATUS_RECALC_TIME_NAME = "org.jboss.cluster.proxy.LBSTATUS_RECALC_TIME";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_LBSTATUS_RECALC_TIME = 5;
+
+	/**
+	 * Minimum number of failed requests to a node over the rolling window to
+	 * open its circuit breaker
+	 */
+	public static final String BREAKER_FAILURES_NAME = "org.jboss.cluster.proxy.BREAKER_FAILURES";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BREAKER_FAILURES = 5;
+
+	/**
+	 * Minimum percentage of failed requests to a node over the rolling window
+	 * to open its circuit breaker
+	 */
+	public static final String BREAKER_FAILURE_RATIO_NAME = "org.jboss.cluster.proxy.BREAKER_FAILURE_RATIO";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BREAKER_FAILURE_RATIO = 50;
+
+	/**
+	 * Duration in milliseconds of the rolling window over which the failures
+	 * of a node are counted
+	 */
+	public static final String BREAKER_WINDOW_NAME = "org.jboss.cluster.proxy.BREAKER_WINDOW";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BREAKER_WINDOW = 10000;
+
+	/**
+	 * Time in milliseconds the circuit breaker of a node stays open before
+	 * probing the node again
+	 */
+	public static final String BREAKER_OPEN_TIME_NAME = "org.jboss.cluster.proxy.BREAKER_OPEN_TIME";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BREAKER_OPEN_TIME = 500;
+
+	/**
+	 * Number of probe requests sent to a node in half-open state, which all
+	 * must succeed to close its circuit breaker
+	 */
+	public static final String BREAKER_PROBES_NAME = "org.jboss.cluster.proxy.BREAKER_PROBES";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BREAKER_PROBES = 3;
+
+	/**
+	 * Interval in milliseconds between two outlier detections, which is also
+	 * the window of the statistics of the nodes. 0 disables the detection
+	 */
+	public static final String OUTLIER_INTERVAL_NAME = "org.jboss.cluster.proxy.OUTLIER_INTERVAL";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_OUTLIER_INTERVAL = 10000;
+
+	/**
+	 * Minimum number of requests to a node over the window to consider it for
+	 * the outlier detection
+	 */
+	public static final String OUTLIER_MIN_REQUESTS_NAME = "org.jboss.cluster.proxy.OUTLIER_MIN_REQUESTS";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_OUTLIER_MIN_REQUESTS = 20;
+
+	/**
+	 * Percentage of server errors and resets over the window from which a node
+	 * is ejected
+	 */
+	public static final String OUTLIER_ERROR_RATIO_NAME = "org.jboss.cluster.proxy.OUTLIER_ERROR_RATIO";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_OUTLIER_ERROR_RATIO = 50;
+
+	/**
+	 * Factor of the median time to first byte of the nodes over which a node is
+	 * ejected
+	 */
+	public static final String OUTLIER_LATENCY_FACTOR_NAME = "org.jboss.cluster.proxy.OUTLIER_LATENCY_FACTOR";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_OUTLIER_LATENCY_FACTOR = 10;
+
+	/**
+	 * Base time in milliseconds of the ejection of a node, multiplied by the
+	 * number of its consecutive ejections
+	 */
+	public static final String OUTLIER_EJECTION_TIME_NAME = "org.jboss.cluster.proxy.OUTLIER_EJECTION_TIME";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_OUTLIER_EJECTION_TIME = 30000;
+
+	/**
+	 * Maximum percentage of the nodes ejected at once
+	 */
+	public static final String OUTLIER_MAX_EJECTION_NAME = "org.jboss.cluster.proxy.OUTLIER_MAX_EJECTION";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_OUTLIER_MAX_EJECTION = 50;
+
+	/**
+	 * Interval in milliseconds between two health checks of a node, used when
+	 * the node does not define its <tt>ping</tt>
+	 */
+	public static final String HEALTH_CHECK_INTERVAL_NAME = "org.jboss.cluster.proxy.HEALTH_CHECK_INTERVAL";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_HEALTH_CHECK_INTERVAL = 10000;
+
+	/**
+	 * Maximum time in milliseconds to wait for the response to a health check
+	 */
+	public static final String HEALTH_CHECK_TIMEOUT_NAME = "org.jboss.cluster.proxy.HEALTH_CHECK_TIMEOUT";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_HEALTH_CHECK_TIMEOUT = 5000;
+
+	/**
+	 * Maximum percentage of the interval randomly added to or removed from the
+	 * interval between two health checks, to spread the checks over time
+	 */
+	public static final String HEALTH_CHECK_JITTER_NAME = "org.jboss.cluster.proxy.HEALTH_CHECK_JITTER";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_HEALTH_CHECK_JITTER = 10;
+
+	/**
+	 * Number of consecutive failed health checks which open the circuit breaker
+	 * of a node, whatever its traffic
+	 */
+	public static final String HEALTH_CHECK_FAILURES_NAME = "org.jboss.cluster.proxy.HEALTH_CHECK_FAILURES";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_HEALTH_CHECK_FAILURES = 3;
+
+	/**
+	 * Request sent to check the health of a node: <tt>OPTIONS</tt>, or the path
+	 * to request with the <tt>GET</tt> method
+	 */
+	public static final String HEALTH_CHECK_REQUEST_NAME = "org.jboss.cluster.proxy.HEALTH_CHECK_REQUEST";
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_HEALTH_CHECK_REQUEST = "OPTIONS";
+
+	/**
+	 * Maximum time in milliseconds to wait for a connection to a node to be
+	 * established, 0 means no timeout
+	 */
+	public static final String CONNECT_TIMEOUT_NAME = "org.jboss.cluster.proxy.CONNECT_TIMEOUT";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * Maximum idle time in milliseconds of a pooled connection before it is
+	 * considered as stale and discarded, 0 means no limit. The value announced
+	 * by the node in the <tt>Keep-Alive</tt> response header is used when it is
+	 * lower.
+	 */
+	public static final String KEEP_ALIVE_TIMEOUT_NAME = "org.jboss.cluster.proxy.KEEP_ALIVE_TIMEOUT";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 15000;
+
+	/**
+	 * Delay in milliseconds between two runs of the idle connection evictor
+	 */
+	public static final String EVICTION_INTERVAL_NAME = "org.jboss.cluster.proxy.EVICTION_INTERVAL";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_EVICTION_INTERVAL = 5000;
+
+	/**
+	 *
 	 */
 	public static final int DEFAULT_CONNECTION_LINGER = -1;
 	/**
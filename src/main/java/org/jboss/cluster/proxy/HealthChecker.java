@@ -0,0 +1,530 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.tomcat.util.net.NioChannel;
+import org.jboss.cluster.proxy.container.CircuitBreaker;
+import org.jboss.cluster.proxy.container.Node;
+import org.jboss.logging.Logger;
+
+/**
+ * {@code HealthChecker}
+ * <p>
+ * Checks asynchronously the health of the nodes. Each node is checked on its
+ * own schedule, every <tt>ping</tt> milliseconds of the node or at the
+ * configured interval if the node has no <tt>ping</tt>, with a random
+ * jitter, over a new
+ * non-blocking connection, so that a hung node never delays the checks of the
+ * other nodes. The outcome of the checks feeds the circuit breakers of the
+ * nodes, which are opened after consecutive failed checks.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class HealthChecker {
+
+	private static final Logger logger = Logger.getLogger(HealthChecker.class);
+	/**
+	 * Size of the buffer receiving the beginning of the responses, which only
+	 * needs to hold the status line
+	 */
+	private static final int RESPONSE_BUFFER_SIZE = 256;
+	private final ConnectionManager connectionManager;
+	private final ConcurrentHashMap<Node, Probe> probes = new ConcurrentHashMap<>();
+	private final int interval;
+	private final int timeout;
+	private final int jitter;
+	private final int failureThreshold;
+	private final String path;
+	private ScheduledThreadPoolExecutor scheduler;
+	private volatile boolean running = false;
+
+	/**
+	 * Handler of the connect operation of the checks
+	 */
+	private final CompletionHandler<NioChannel, Check> connectHandler = new CompletionHandler<NioChannel, Check>() {
+
+		@Override
+		public void completed(NioChannel channel, Check check) {
+			if (channel == null) {
+				// The connection limit of the node is reached, the node is
+				// busy and there is nothing to conclude
+				check.skip();
+				return;
+			}
+			if (!check.attach(channel)) {
+				return;
+			}
+			Node node = check.probe.node;
+			if (!node.isOptionsEnabled() && path == null) {
+				// The node is reachable, which is all we can check
+				check.finish(true);
+				return;
+			}
+			ByteBuffer request = check.probe.request;
+			request.clear();
+			channel.write(request, check, writeHandler);
+		}
+
+		@Override
+		public void failed(Throwable exc, Check check) {
+			if (logger.isDebugEnabled()) {
+				logger.debug(exc, exc);
+			}
+			check.finish(false);
+		}
+	};
+
+	/**
+	 * Handler of the write operations of the checks
+	 */
+	private final CompletionHandler<Integer, Check> writeHandler = new CompletionHandler<Integer, Check>() {
+
+		@Override
+		public void completed(Integer nBytes, Check check) {
+			NioChannel channel = check.channel.get();
+			if (channel == null) {
+				// The check is finished
+				return;
+			}
+			if (nBytes < 0) {
+				check.finish(false);
+			} else if (check.probe.request.hasRemaining()) {
+				channel.write(check.probe.request, check, this);
+			} else {
+				ByteBuffer response = check.probe.response;
+				response.clear();
+				channel.read(response, check, readHandler);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, Check check) {
+			check.finish(false);
+		}
+	};
+
+	/**
+	 * Handler of the read operations of the checks
+	 */
+	private final CompletionHandler<Integer, Check> readHandler = new CompletionHandler<Integer, Check>() {
+
+		@Override
+		public void completed(Integer nBytes, Check check) {
+			NioChannel channel = check.channel.get();
+			if (channel == null) {
+				// The check is finished
+				return;
+			}
+			if (nBytes < 0) {
+				check.finish(false);
+				return;
+			}
+			ByteBuffer response = check.probe.response;
+			int status = parseStatus(response);
+			if (status == 0 && response.hasRemaining()) {
+				// The status line is not complete
+				channel.read(response, check, this);
+				return;
+			}
+			Node node = check.probe.node;
+			if (status == 501 && path == null) {
+				// The node does not support OPTIONS, it will only be checked
+				// for connectivity
+				node.setOptionsEnabled(false);
+				check.finish(true);
+			} else {
+				check.finish(status >= 200 && status < 400);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, Check check) {
+			check.finish(false);
+		}
+	};
+
+	/**
+	 * Create a new instance of {@code HealthChecker} configured by the system
+	 * properties
+	 * 
+	 * @param connectionManager
+	 *            the connection manager used to open the connections
+	 */
+	public HealthChecker(ConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
+		this.interval = Integer.getInteger(Constants.HEALTH_CHECK_INTERVAL_NAME,
+				Constants.DEFAULT_HEALTH_CHECK_INTERVAL);
+		this.timeout = Integer.getInteger(Constants.HEALTH_CHECK_TIMEOUT_NAME,
+				Constants.DEFAULT_HEALTH_CHECK_TIMEOUT);
+		this.jitter = Math.max(Math.min(Integer.getInteger(Constants.HEALTH_CHECK_JITTER_NAME,
+				Constants.DEFAULT_HEALTH_CHECK_JITTER), 100), 0);
+		this.failureThreshold = Math.max(Integer.getInteger(
+				Constants.HEALTH_CHECK_FAILURES_NAME, Constants.DEFAULT_HEALTH_CHECK_FAILURES), 1);
+		String req = System.getProperty(Constants.HEALTH_CHECK_REQUEST_NAME,
+				Constants.DEFAULT_HEALTH_CHECK_REQUEST).trim();
+		this.path = "OPTIONS".equalsIgnoreCase(req) || req.isEmpty() ? null : req;
+	}
+
+	/**
+	 * Start the scheduler of the checks
+	 */
+	public synchronized void start() {
+		if (this.running) {
+			return;
+		}
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "HealthChecker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		this.running = true;
+		for (Probe probe : this.probes.values()) {
+			probe.schedule(ThreadLocalRandom.current().nextInt(probe.interval()));
+		}
+	}
+
+	/**
+	 * Stop the checks. The checks in progress are abandoned.
+	 */
+	public synchronized void stop() {
+		if (!this.running) {
+			return;
+		}
+		this.running = false;
+		this.scheduler.shutdownNow();
+		this.scheduler = null;
+	}
+
+	/**
+	 * Check the health of the specified node. The first check is delayed
+	 * randomly within the interval to spread the checks.
+	 * 
+	 * @param node
+	 *            the node to check
+	 */
+	public synchronized void register(Node node) {
+		Probe probe = new Probe(node);
+		Probe old = this.probes.put(node, probe);
+		if (old != null) {
+			old.cancelled = true;
+		}
+		if (this.running) {
+			probe.schedule(ThreadLocalRandom.current().nextInt(probe.interval()));
+		}
+	}
+
+	/**
+	 * Stop checking the health of the specified node
+	 * 
+	 * @param node
+	 *            the node
+	 */
+	public synchronized void unregister(Node node) {
+		Probe probe = this.probes.remove(node);
+		if (probe != null) {
+			probe.cancelled = true;
+		}
+	}
+
+	/**
+	 * Parse the status code of the status line received in the buffer, between
+	 * the beginning of the buffer and its position.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @return the status code, 0 if the status line is not complete, or -1 if
+	 *         it is malformed
+	 */
+	static int parseStatus(ByteBuffer buffer) {
+		int end = buffer.position();
+		int i = 0;
+		// Skip the HTTP version
+		while (i < end && buffer.get(i) != ' ') {
+			if (buffer.get(i) == '\n') {
+				return -1;
+			}
+			i++;
+		}
+		while (i < end && buffer.get(i) == ' ') {
+			i++;
+		}
+		if (end - i < 4) {
+			return 0;
+		}
+		int status = 0;
+		for (int k = 0; k < 3; k++) {
+			byte b = buffer.get(i + k);
+			if (b < '0' || b > '9') {
+				return -1;
+			}
+			status = status * 10 + (b - '0');
+		}
+		byte b = buffer.get(i + 3);
+		return (b == ' ' || b == '\r' || b == '\n') ? status : -1;
+	}
+
+	/**
+	 * {@code Probe}
+	 * <p>
+	 * The health check of a node. The request and the response buffer are
+	 * allocated once, since the checks of a node never overlap.
+	 * </p>
+	 */
+	class Probe implements Runnable {
+
+		private final Node node;
+		private final ByteBuffer request;
+		private final ByteBuffer response = ByteBuffer.allocate(RESPONSE_BUFFER_SIZE);
+		private volatile boolean cancelled = false;
+		// Number of consecutive failed checks
+		private volatile int failures = 0;
+
+		/**
+		 * Create a new instance of {@code Probe}
+		 * 
+		 * @param node
+		 */
+		Probe(Node node) {
+			this.node = node;
+			String host = node.getHostname() + ":" + node.getPort();
+			String req = (path == null) ? "OPTIONS * HTTP/1.1\r\n" : "GET " + path
+					+ " HTTP/1.1\r\n";
+			this.request = ByteBuffer.wrap((req + "Host: " + host
+					+ "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			if (!running || this.cancelled) {
+				return;
+			}
+			ScheduledThreadPoolExecutor executor = scheduler;
+			if (executor == null) {
+				return;
+			}
+			Check check = new Check(this);
+			try {
+				check.timeout = executor.schedule(check, timeout, TimeUnit.MILLISECONDS);
+				connectionManager.connect(this.node, check, connectHandler);
+			} catch (Throwable th) {
+				logger.error(th, th);
+				check.finish(false);
+			}
+		}
+
+		/**
+		 * Schedule the next check
+		 * 
+		 * @param delay
+		 *            the delay in milliseconds
+		 */
+		void schedule(long delay) {
+			ScheduledThreadPoolExecutor executor = scheduler;
+			if (!running || this.cancelled || executor == null) {
+				return;
+			}
+			try {
+				executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				// The checker is stopped
+			}
+		}
+
+		/**
+		 * @return the interval in milliseconds between the checks of the node
+		 */
+		int interval() {
+			int ping = this.node.getPing();
+			return Math.max(ping > 0 ? ping : interval, 1);
+		}
+
+		/**
+		 * Schedule the next check after the interval of the node, plus or
+		 * minus the jitter
+		 */
+		void scheduleNext() {
+			int delay = interval();
+			int range = delay * jitter / 100;
+			if (range > 0) {
+				delay += ThreadLocalRandom.current().nextInt(-range, range + 1);
+			}
+			schedule(Math.max(delay, 1));
+		}
+
+		/**
+		 * Update the circuit breaker of the node with the outcome of a check
+		 * 
+		 * @param healthy
+		 */
+		void report(boolean healthy) {
+			long now = System.currentTimeMillis();
+			CircuitBreaker breaker = this.node.getCircuitBreaker();
+			if (healthy) {
+				this.failures = 0;
+				if (breaker.release(now)) {
+					// The live requests decide whether the node recovered
+					logger.info("Probing node <" + this.node.getHostname() + ":"
+							+ this.node.getPort() + ">");
+					connectionManager.prewarm(this.node);
+				} else if (breaker.onSuccess(now)) {
+					logger.info("New available node <" + this.node.getHostname() + ":"
+							+ this.node.getPort() + ">");
+					connectionManager.prewarm(this.node);
+				}
+			} else {
+				boolean opened = breaker.onFailure(now);
+				// The checks alone are too few to fill the rolling window of
+				// an idle node. The node gets no request until a check
+				// succeeds.
+				if (++this.failures >= failureThreshold && breaker.hold(now)) {
+					opened = true;
+				}
+				if (opened) {
+					logger.info("New failed node <" + this.node.getHostname() + ":"
+							+ this.node.getPort() + ">");
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@code Check}
+	 * <p>
+	 * A single check of a node, completed exactly once by its response, its
+	 * failure or its timeout.
+	 * </p>
+	 */
+	private class Check extends AtomicBoolean implements Runnable {
+
+		private static final long serialVersionUID = 1L;
+		private final Probe probe;
+		private final AtomicReference<NioChannel> channel = new AtomicReference<>();
+		private volatile ScheduledFuture<?> timeout;
+
+		/**
+		 * Create a new instance of {@code Check}
+		 * 
+		 * @param probe
+		 */
+		Check(Probe probe) {
+			this.probe = probe;
+		}
+
+		/**
+		 * Attach the connection to the check
+		 * 
+		 * @param ch
+		 *            the connection to the node
+		 * @return <tt>false</tt> if the check is already finished, in which
+		 *         case the connection is closed
+		 */
+		boolean attach(NioChannel ch) {
+			this.channel.set(ch);
+			if (get()) {
+				close();
+				return false;
+			}
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			// The check timed out
+			finish(false);
+		}
+
+		/**
+		 * Complete the check and report its outcome
+		 * 
+		 * @param healthy
+		 */
+		void finish(boolean healthy) {
+			if (complete()) {
+				this.probe.report(healthy);
+				this.probe.scheduleNext();
+			}
+		}
+
+		/**
+		 * Complete the check without any outcome
+		 */
+		void skip() {
+			if (complete()) {
+				this.probe.scheduleNext();
+			}
+		}
+
+		/**
+		 * @return <tt>true</tt> if the check was not yet completed
+		 */
+		private boolean complete() {
+			if (!compareAndSet(false, true)) {
+				return false;
+			}
+			ScheduledFuture<?> future = this.timeout;
+			if (future != null) {
+				future.cancel(false);
+			}
+			close();
+			return true;
+		}
+
+		/**
+		 * Close the connection of the check, which aborts the pending
+		 * operations
+		 */
+		private void close() {
+			NioChannel ch = this.channel.getAndSet(null);
+			if (ch != null) {
+				connectionManager.close(this.probe.node, ch);
+			}
+		}
+	}
+}
@@ -0,0 +1,347 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code CircuitBreaker}
+ * <p>
+ * Lock-free circuit breaker of a node. The breaker is <tt>CLOSED</tt> while
+ * the node answers. It opens when the number of failures over a
+ * {@link RollingWindow} reaches the failure threshold and the failure ratio,
+ * and the node does not receive requests anymore. Once the open time is
+ * elapsed, the breaker becomes <tt>HALF_OPEN</tt> and a bounded number of live
+ * requests are sent to the node as probes: the breaker closes when all the
+ * probes succeed and opens again as soon as one of them fails. A breaker held
+ * open by the health checks stays open, whatever the open time, until it is
+ * released by a successful check.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class CircuitBreaker implements Serializable {
+
+	/**
+	 * {@code State}
+	 */
+	public enum State {
+		/**
+		 * The node receives the requests
+		 */
+		CLOSED,
+		/**
+		 * The node does not receive any request
+		 */
+		OPEN,
+		/**
+		 * The node receives a bounded number of probe requests
+		 */
+		HALF_OPEN;
+	}
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2406582736471150325L;
+	// Counters of the window
+	private static final int FAILURES = 0;
+	private static final int REQUESTS = 1;
+	private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+	/**
+	 * Time of the last transition to the open or to the half-open state. The
+	 * transitions are serialized by a CAS on this field.
+	 */
+	private final AtomicLong since = new AtomicLong(0);
+	/**
+	 * Time of the last transition to the closed state, 0 if never opened
+	 */
+	private volatile long closedSince = 0;
+	/**
+	 * Whether the breaker is held open until {@link #release(long)}
+	 */
+	private volatile boolean held = false;
+	private final AtomicInteger probes = new AtomicInteger(0);
+	private final AtomicInteger successes = new AtomicInteger(0);
+	private final RollingWindow window;
+	private final int failureThreshold;
+	private final int failureRatio;
+	private final long openTime;
+	private final int maxProbes;
+
+	/**
+	 * Create a new instance of {@code CircuitBreaker} configured by the system
+	 * properties
+	 */
+	public CircuitBreaker() {
+		this(Integer.getInteger(Constants.BREAKER_FAILURES_NAME,
+				Constants.DEFAULT_BREAKER_FAILURES), Integer.getInteger(
+				Constants.BREAKER_FAILURE_RATIO_NAME, Constants.DEFAULT_BREAKER_FAILURE_RATIO),
+				Long.getLong(Constants.BREAKER_WINDOW_NAME, Constants.DEFAULT_BREAKER_WINDOW),
+				Long.getLong(Constants.BREAKER_OPEN_TIME_NAME, Constants.DEFAULT_BREAKER_OPEN_TIME),
+				Integer.getInteger(Constants.BREAKER_PROBES_NAME, Constants.DEFAULT_BREAKER_PROBES));
+	}
+
+	/**
+	 * Create a new instance of {@code CircuitBreaker}
+	 * 
+	 * @param failureThreshold
+	 *            the minimum number of failures over the window to open
+	 * @param failureRatio
+	 *            the minimum percentage of failed requests over the window to
+	 *            open
+	 * @param window
+	 *            the duration of the rolling window in milliseconds
+	 * @param openTime
+	 *            the time in milliseconds the breaker stays open before
+	 *            probing the node
+	 * @param maxProbes
+	 *            the number of probes in half-open state, which all must
+	 *            succeed to close
+	 */
+	public CircuitBreaker(int failureThreshold, int failureRatio, long window, long openTime,
+			int maxProbes) {
+		this.failureThreshold = Math.max(failureThreshold, 1);
+		this.failureRatio = Math.max(Math.min(failureRatio, 100), 0);
+		this.window = new RollingWindow(window, 2);
+		this.openTime = Math.max(openTime, 0);
+		this.maxProbes = Math.max(maxProbes, 1);
+	}
+
+	/**
+	 * @return the state of the breaker
+	 */
+	public State getState() {
+		return this.state.get();
+	}
+
+	/**
+	 * @return the time in milliseconds at which the breaker closed after
+	 *         having been opened, 0 if it was never opened
+	 */
+	public long getClosedSince() {
+		return this.closedSince;
+	}
+
+	/**
+	 * Check, without taking a probe, whether the node may receive a request
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the breaker is closed, or if a probe may be sent
+	 *         to the node
+	 */
+	public boolean isAvailable(long now) {
+		State s = this.state.get();
+		if (this.held && s != State.CLOSED) {
+			return false;
+		}
+		switch (s) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				return now - this.since.get() >= this.openTime;
+			default:
+				return this.probes.get() < this.maxProbes
+						|| now - this.since.get() >= this.openTime;
+		}
+	}
+
+	/**
+	 * Acquire the permission to send a request to the node. In half-open state
+	 * the request is a probe, and the probes which did not complete within the
+	 * open time are granted again.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the request may be sent to the node
+	 */
+	public boolean tryAcquire(long now) {
+		for (;;) {
+			State s = this.state.get();
+			if (s == State.CLOSED) {
+				return true;
+			}
+			if (this.held) {
+				return false;
+			}
+			long t = this.since.get();
+			if (now - t >= this.openTime) {
+				// Start a new round of probes
+				if (this.since.compareAndSet(t, now)) {
+					this.successes.set(0);
+					this.probes.set(1);
+					this.state.compareAndSet(State.OPEN, State.HALF_OPEN);
+					return true;
+				}
+				continue;
+			}
+			if (s == State.OPEN) {
+				return false;
+			}
+			int p = this.probes.get();
+			if (p >= this.maxProbes) {
+				return false;
+			}
+			if (this.probes.compareAndSet(p, p + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Record a successful request
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the breaker closed
+	 */
+	public boolean onSuccess(long now) {
+		record(now, false);
+		if (this.state.get() == State.HALF_OPEN
+				&& this.successes.incrementAndGet() >= this.maxProbes
+				&& this.state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+			// Forget the failures which opened the breaker
+			this.window.clear();
+			this.closedSince = now;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record a failed request
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the breaker opened
+	 */
+	public boolean onFailure(long now) {
+		record(now, true);
+		State s = this.state.get();
+		if (s == State.HALF_OPEN) {
+			// A probe failed, wait again before probing the node
+			long t = this.since.get();
+			if (this.since.compareAndSet(t, now)) {
+				this.state.set(State.OPEN);
+				return true;
+			}
+		} else if (s == State.CLOSED && tripped(now)) {
+			// Set the time first, so that the breaker is never seen open with
+			// an elapsed open time
+			this.since.set(now);
+			return this.state.compareAndSet(State.CLOSED, State.OPEN);
+		}
+		return false;
+	}
+
+	/**
+	 * Open the breaker whatever the failures over the rolling window, e.g.
+	 * after consecutive failed health checks
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the breaker opened
+	 */
+	public boolean open(long now) {
+		State s = this.state.get();
+		if (s == State.OPEN) {
+			return false;
+		}
+		this.since.set(now);
+		return this.state.compareAndSet(s, State.OPEN);
+	}
+
+	/**
+	 * Open the breaker and keep it open until {@link #release(long)}, e.g.
+	 * after consecutive failed health checks. Unlike {@link #open(long)}, the
+	 * elapsed open time does not let live requests probe the node.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the breaker opened
+	 */
+	public boolean hold(long now) {
+		this.held = true;
+		return open(now);
+	}
+
+	/**
+	 * Release a breaker held open by {@link #hold(long)}: the breaker becomes
+	 * half-open and the live requests probe the node again
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the breaker was held open
+	 */
+	public boolean release(long now) {
+		if (!this.held) {
+			return false;
+		}
+		this.since.set(now);
+		this.successes.set(0);
+		this.probes.set(0);
+		this.state.compareAndSet(State.OPEN, State.HALF_OPEN);
+		this.held = false;
+		return true;
+	}
+
+	/**
+	 * Update the bucket of the current time
+	 * 
+	 * @param now
+	 * @param failure
+	 */
+	private void record(long now, boolean failure) {
+		int i = this.window.bucket(now);
+		this.window.add(i, REQUESTS, 1);
+		if (failure) {
+			this.window.add(i, FAILURES, 1);
+		}
+	}
+
+	/**
+	 * @param now
+	 * @return <tt>true</tt> if the failures over the rolling window reach the
+	 *         threshold and the ratio
+	 */
+	private boolean tripped(long now) {
+		long f = this.window.sum(now, FAILURES);
+		return f >= this.failureThreshold
+				&& f * 100L >= this.window.sum(now, REQUESTS) * this.failureRatio;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return this.state.get().name();
+	}
+}
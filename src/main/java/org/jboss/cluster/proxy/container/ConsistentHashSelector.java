@@ -0,0 +1,272 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code ConsistentHashSelector}
+ * <p>
+ * Routes the requests having the same key to the same node, to preserve the
+ * hit rate of the node local caches. The node is chosen by weighted
+ * rendezvous hashing: each node gets a score computed from the hash of the
+ * key and the hash of the node, and the available node having the highest
+ * score wins. When a node joins or leaves, only the keys for which it has
+ * (or had) the highest score move. During its slow start, a node wins the
+ * keys progressively as its weight grows.
+ * </p>
+ * The key is configured by the {@link Constants#HASH_KEY_NAME} system
+ * property:
+ * <ul>
+ * <li><tt>ip</tt>: the raw bytes of the client IP address</li>
+ * <li><tt>header:&lt;name&gt;</tt>: the value of a request header</li>
+ * <li><tt>uri</tt>: the request URI without the query string</li>
+ * <li><tt>uri:&lt;n&gt;</tt>: the first <tt>n</tt> segments of the request
+ * URI</li>
+ * </ul>
+ * Requests without key (e.g. missing header) hash an empty key.
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class ConsistentHashSelector implements NodeSelector {
+
+	private static final int KEY_IP = 0;
+	private static final int KEY_HEADER = 1;
+	private static final int KEY_URI = 2;
+
+	private final int keyType;
+	private final String header;
+	private final int segments;
+	private volatile Node nodes[] = new Node[0];
+	private volatile long hashes[] = new long[0];
+	private final long slowStart = Long.getLong(Constants.SLOW_START_NAME,
+			Constants.DEFAULT_SLOW_START);
+
+	/**
+	 * Create a new instance of {@code ConsistentHashSelector}
+	 */
+	public ConsistentHashSelector() {
+		this(System.getProperty(Constants.HASH_KEY_NAME, Constants.DEFAULT_HASH_KEY));
+	}
+
+	/**
+	 * Create a new instance of {@code ConsistentHashSelector}
+	 * 
+	 * @param key
+	 *            the definition of the hash key
+	 */
+	public ConsistentHashSelector(String key) {
+		String k = key.trim();
+		if (k.equalsIgnoreCase("ip")) {
+			this.keyType = KEY_IP;
+			this.header = null;
+			this.segments = 0;
+		} else if (k.regionMatches(true, 0, "header:", 0, 7)) {
+			this.keyType = KEY_HEADER;
+			this.header = k.substring(7).trim();
+			this.segments = 0;
+		} else if (k.regionMatches(true, 0, "uri:", 0, 4)) {
+			this.keyType = KEY_URI;
+			this.header = null;
+			this.segments = Integer.parseInt(k.substring(4).trim());
+		} else if (k.equalsIgnoreCase("uri")) {
+			this.keyType = KEY_URI;
+			this.header = null;
+			this.segments = 0;
+		} else {
+			throw new IllegalArgumentException("Unknown hash key: " + key);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.container.NodeSelector#setNodes(org.jboss.cluster
+	 * .proxy.container.Node[])
+	 */
+	@Override
+	public void setNodes(Node nodes[]) {
+		long h[] = new long[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			// The address of the node is stable across restarts, unlike the
+			// jvmRoute which is random for the static nodes
+			String id = nodes[i].getHostname() + ":" + nodes[i].getPort();
+			long hash = FNV_OFFSET;
+			for (int j = 0; j < id.length(); j++) {
+				hash = (hash ^ id.charAt(j)) * FNV_PRIME;
+			}
+			h[i] = mix(hash);
+		}
+		// Publish the hashes before the nodes
+		this.hashes = h;
+		this.nodes = nodes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.container.NodeSelector#select(org.apache.coyote
+	 * .Request, org.jboss.cluster.proxy.container.Node)
+	 */
+	@Override
+	public Node select(Request request, Node excluded) {
+		Node snapshot[] = this.nodes;
+		long h[] = this.hashes;
+		if (snapshot.length == 0 || h.length != snapshot.length) {
+			return null;
+		}
+
+		long key = hashKey(request);
+		long now = System.currentTimeMillis();
+		Node best = null;
+		double bestScore = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			Node node = snapshot[i];
+			if (node == excluded || !node.isAvailable(now)) {
+				continue;
+			}
+			// Uniform value in ]0, 1[ derived from the key and the node
+			double u = ((mix(key ^ h[i]) >>> 11) + 0.5) * 0x1.0p-53;
+			double weight = Math.max(node.getWeight(), 1)
+					* node.getSlowStartFactor(now, this.slowStart);
+			double score = -weight / Math.log(u);
+			if (best == null || score > bestScore) {
+				best = node;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param request
+	 * @return the hash of the key of the request
+	 */
+	private long hashKey(Request request) {
+		switch (this.keyType) {
+			case KEY_IP:
+				if (request.getRemoteAddress() == null) {
+					request.action(ActionCode.ACTION_REQ_REMOTEADDRESS_ATTRIBUTE, null);
+				}
+				return hash(request.getRemoteAddress());
+			case KEY_HEADER:
+				MessageBytes value = request.getMimeHeaders().getValue(this.header);
+				return value == null ? FNV_OFFSET : hash(value, -1);
+			default:
+				return hash(request.requestURI(), this.segments);
+		}
+	}
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * FNV-1a hash of the content of the message bytes, stopping at the query
+	 * string and, if <tt>segments</tt> is positive, after the given number of
+	 * path segments
+	 * 
+	 * @param mb
+	 * @param segments
+	 * @return the hash
+	 */
+	private static long hash(MessageBytes mb, int segments) {
+		long hash = FNV_OFFSET;
+		int slashes = 0;
+		switch (mb.getType()) {
+			case MessageBytes.T_BYTES: {
+				ByteChunk bc = mb.getByteChunk();
+				byte b[] = bc.getBuffer();
+				for (int i = bc.getStart(), end = bc.getEnd(); i < end; i++) {
+					int c = b[i] & 0xff;
+					if (segments >= 0 && (c == '?' || (c == '/' && ++slashes > segments && segments > 0))) {
+						break;
+					}
+					hash = (hash ^ c) * FNV_PRIME;
+				}
+				break;
+			}
+			case MessageBytes.T_CHARS: {
+				CharChunk cc = mb.getCharChunk();
+				char c[] = cc.getBuffer();
+				for (int i = cc.getStart(), end = cc.getEnd(); i < end; i++) {
+					if (segments >= 0 && (c[i] == '?' || (c[i] == '/' && ++slashes > segments && segments > 0))) {
+						break;
+					}
+					hash = (hash ^ c[i]) * FNV_PRIME;
+				}
+				break;
+			}
+			case MessageBytes.T_STR: {
+				String s = mb.getString();
+				for (int i = 0; i < s.length(); i++) {
+					char c = s.charAt(i);
+					if (segments >= 0 && (c == '?' || (c == '/' && ++slashes > segments && segments > 0))) {
+						break;
+					}
+					hash = (hash ^ c) * FNV_PRIME;
+				}
+				break;
+			}
+			default:
+				break;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * FNV-1a hash of the raw bytes of an address
+	 * 
+	 * @param address
+	 * @return the hash
+	 */
+	private static long hash(byte address[]) {
+		long hash = FNV_OFFSET;
+		if (address != null) {
+			for (int i = 0; i < address.length; i++) {
+				hash = (hash ^ (address[i] & 0xff)) * FNV_PRIME;
+			}
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Final mixing of a 64 bits hash (MurmurHash3 finalizer)
+	 * 
+	 * @param h
+	 * @return the mixed hash
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code LeastRequestsSelector}
+ * <p>
+ * Selects the node having the least requests in flight relatively to its
+ * weight. To avoid scanning all the nodes and herding all the threads on the
+ * same node, two distinct nodes are drawn at random and the least loaded one
+ * is chosen (power of two choices). Small clusters are scanned entirely. The
+ * weight of a node in slow start is reduced to its share.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class LeastRequestsSelector implements NodeSelector {
+
+	/**
+	 * Under this number of nodes, all the nodes are compared
+	 */
+	private static final int SCAN_THRESHOLD = 4;
+	private volatile Node nodes[] = new Node[0];
+	private final long slowStart = Long.getLong(Constants.SLOW_START_NAME,
+			Constants.DEFAULT_SLOW_START);
+
+	/**
+	 * Create a new instance of {@code LeastRequestsSelector}
+	 */
+	public LeastRequestsSelector() {
+		super();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.container.NodeSelector#setNodes(org.jboss.cluster
+	 * .proxy.container.Node[])
+	 */
+	@Override
+	public void setNodes(Node nodes[]) {
+		this.nodes = nodes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.container.NodeSelector#select(org.apache.coyote
+	 * .Request, org.jboss.cluster.proxy.container.Node)
+	 */
+	@Override
+	public Node select(Request request, Node excluded) {
+		Node snapshot[] = this.nodes;
+		int length = snapshot.length;
+		long now = System.currentTimeMillis();
+		if (length < SCAN_THRESHOLD) {
+			return scan(snapshot, 0, excluded, now);
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int i = random.nextInt(length);
+		int j = random.nextInt(length - 1);
+		if (j >= i) {
+			j++;
+		}
+		Node a = snapshot[i];
+		Node b = snapshot[j];
+		boolean availableA = a != excluded && a.isAvailable(now);
+		boolean availableB = b != excluded && b.isAvailable(now);
+		if (availableA) {
+			return (availableB && lessLoaded(b, a, now)) ? b : a;
+		}
+		if (availableB) {
+			return b;
+		}
+		// Both nodes are unavailable, look for any other node
+		return scan(snapshot, i, excluded, now);
+	}
+
+	/**
+	 * Compare all the available nodes
+	 * 
+	 * @param snapshot
+	 *            the nodes
+	 * @param start
+	 *            the index of the first node to compare
+	 * @param excluded
+	 *            the node which must not be selected, or <tt>null</tt>
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the least loaded node, or <tt>null</tt> if all the nodes are
+	 *         unavailable
+	 */
+	private Node scan(Node snapshot[], int start, Node excluded, long now) {
+		Node best = null;
+		int length = snapshot.length;
+		for (int k = 0; k < length; k++) {
+			int index = start + k;
+			Node node = snapshot[index < length ? index : index - length];
+			if (node != excluded && node.isAvailable(now)
+					&& (best == null || lessLoaded(node, best, now))) {
+				best = node;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @param now
+	 * @return <tt>true</tt> if the node <tt>a</tt> has less requests in flight
+	 *         than the node <tt>b</tt> relatively to their weights
+	 */
+	private boolean lessLoaded(Node a, Node b, long now) {
+		double wa = Math.max(a.getWeight(), 1) * a.getSlowStartFactor(now, this.slowStart);
+		double wb = Math.max(b.getWeight(), 1) * b.getSlowStartFactor(now, this.slowStart);
+		return (a.getInFlight() + 1) * wb < (b.getInFlight() + 1) * wa;
+	}
+}
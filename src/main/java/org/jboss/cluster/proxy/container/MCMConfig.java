@@ -18,21 +18,53 @@
 package org.jboss.cluster.proxy.container;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.cluster.proxy.Constants;
 
 /**
  * Configuration of the cluster received via the MCM elements.
+ * <p>
+ * The MCMP commands update the configuration under the lock of this object,
+ * then publish an immutable and indexed {@link Snapshot} of it through a
+ * single volatile reference. The request threads only read the current
+ * snapshot, without locking nor scanning the lists.
+ * </p>
  * 
  * @author Jean-Frederic Clere
  * 
  */
 public class MCMConfig {
 
+	/* The configuration being updated by the MCMP commands */
 	private List<Node> nodes = new ArrayList<Node>();
 	private List<Balancer> balancers = new ArrayList<Balancer>();
 	private List<VHost> hosts = new ArrayList<VHost>();
 	private List<Context> contexts = new ArrayList<Context>();
-	private int lbstatus_recalc_time = 5;
+	/* The configuration as seen by the request threads */
+	private volatile Snapshot snapshot = new Snapshot(nodes, balancers, hosts, contexts);
+	private int lbstatus_recalc_time = Integer.getInteger(Constants.LBSTATUS_RECALC_TIME_NAME,
+			Constants.DEFAULT_LBSTATUS_RECALC_TIME);
+	/* Upper bound of the lbfactors, to bound the length of the schedule */
+	private static final int MAX_LBFACTOR = 100;
+	/* The elections of a cycle of the lbstatus algorithm */
+	private volatile Node schedule[] = new Node[0];
+	private final AtomicInteger cursor = new AtomicInteger(0);
+	/* Slow start window of the registered or recovered nodes */
+	private final long slowStart = Long.getLong(Constants.SLOW_START_NAME, Constants.DEFAULT_SLOW_START);
+	private String balancingMode = System.getProperty(Constants.BALANCING_MODE_NAME,
+			Constants.DEFAULT_BALANCING_MODE);
+	private boolean leastRequests = "LEAST_REQUESTS".equalsIgnoreCase(balancingMode);
+	private boolean latency = "LATENCY".equalsIgnoreCase(balancingMode);
+	/* Passive detection of the failing nodes from their live traffic */
+	private final OutlierDetector outliers = new OutlierDetector();
 	
 	protected Thread thread = null;
 	
@@ -64,117 +96,477 @@ public class MCMConfig {
 		 
 	 }
 
-	public void insertupdate(Node node) {
-		if (getNodes().isEmpty()) {
-			node.setId(1);
-			getNodes().add(node);
-		} else {
-			int i = 1;
-			Node replace = null;
-			for (Node nod : getNodes()) {
-				if (nod.getJvmRoute().equals(node.getJvmRoute())) {
-					// replace it.
-					// TODO that is more tricky see mod_cluster C code.
-					replace = nod;
-					break;
-				} else {
-					i++;
+	/**
+	 * {@code Snapshot}
+	 * <p>
+	 * Immutable state of the configuration with its indexes. A new snapshot
+	 * is built after each update of the configuration.
+	 * </p>
+	 */
+	private static final class Snapshot {
+		private final List<Node> nodes;
+		private final Node nodeArray[];
+		private final List<Balancer> balancers;
+		private final List<VHost> hosts;
+		private final List<Context> contexts;
+		/* Index of the nodes by JVMRoute */
+		private final RouteIndex<Node> routes;
+		/* Index of the balancers by name */
+		private final RouteIndex<Balancer> balancersByName;
+		/* Index of the balancers by sticky session cookie name */
+		private final RouteIndex<Balancer> stickyCookies;
+		/* Index of the balancers by sticky session path parameter name */
+		private final RouteIndex<Balancer> stickyPaths;
+		/* Index of the virtual hosts by alias */
+		private final RouteIndex<VHost[]> hostsByAlias;
+		/* Index of the nodes by context path */
+		private final RouteIndex<Node[]> nodesByContext;
+		/* Index of the nodes by domain (load balancing group) */
+		private final RouteIndex<Node[]> nodesByDomain;
+		/* Contexts by host alias (lower case), the longest paths first */
+		private final RouteIndex<ContextNodes[]> contextsByHost;
+		/* Contexts of all the hosts, the longest paths first */
+		private final ContextNodes allContexts[];
+
+		Snapshot(List<Node> nodes, List<Balancer> balancers, List<VHost> hosts,
+				List<Context> contexts) {
+			this.nodeArray = nodes.toArray(new Node[nodes.size()]);
+			this.nodes = Collections.unmodifiableList(Arrays.asList(this.nodeArray));
+			this.balancers = Collections.unmodifiableList(new ArrayList<Balancer>(balancers));
+			this.hosts = Collections.unmodifiableList(new ArrayList<VHost>(hosts));
+			this.contexts = Collections.unmodifiableList(new ArrayList<Context>(contexts));
+
+			Map<String, Node> nodeMap = new HashMap<String, Node>();
+			for (Node nod : this.nodeArray)
+				nodeMap.put(nod.getJvmRoute(), nod);
+			this.routes = new RouteIndex<Node>(nodeMap);
+
+			Map<String, Balancer> names = new HashMap<String, Balancer>();
+			Map<String, Balancer> cookies = new HashMap<String, Balancer>();
+			Map<String, Balancer> paths = new HashMap<String, Balancer>();
+			for (Balancer bal : this.balancers) {
+				names.put(bal.getName(), bal);
+				if (!bal.isStickySession())
+					continue;
+				if (bal.getStickySessionCookie() != null
+						&& !cookies.containsKey(bal.getStickySessionCookie()))
+					cookies.put(bal.getStickySessionCookie(), bal);
+				if (bal.getStickySessionPath() != null
+						&& !paths.containsKey(bal.getStickySessionPath()))
+					paths.put(bal.getStickySessionPath(), bal);
+			}
+			this.balancersByName = new RouteIndex<Balancer>(names);
+			this.stickyCookies = new RouteIndex<Balancer>(cookies);
+			this.stickyPaths = new RouteIndex<Balancer>(paths);
+
+			Map<String, List<VHost>> aliases = new HashMap<String, List<VHost>>();
+			for (VHost hos : this.hosts) {
+				for (String alias : hos.getAliases()) {
+					List<VHost> list = aliases.get(alias);
+					if (list == null) {
+						list = new ArrayList<VHost>();
+						aliases.put(alias, list);
+					}
+					list.add(hos);
 				}
 			}
-			if (replace != null) {
-				node.setId(replace.getId());
-				getNodes().remove(replace);
-				getNodes().add(node);
-			} else {
-				node.setId(i);
-				getNodes().add(node);
+			Map<String, VHost[]> hostMap = new HashMap<String, VHost[]>();
+			for (Map.Entry<String, List<VHost>> e : aliases.entrySet())
+				hostMap.put(e.getKey(), e.getValue().toArray(new VHost[e.getValue().size()]));
+			this.hostsByAlias = new RouteIndex<VHost[]>(hostMap);
+
+			Map<String, List<Node>> paths2 = new HashMap<String, List<Node>>();
+			for (Context con : this.contexts) {
+				Node nod = nodeMap.get(con.getJVMRoute());
+				if (nod == null)
+					continue;
+				List<Node> list = paths2.get(con.getPath());
+				if (list == null) {
+					list = new ArrayList<Node>();
+					paths2.put(con.getPath(), list);
+				}
+				if (!list.contains(nod))
+					list.add(nod);
 			}
+			Map<String, Node[]> contextMap = new HashMap<String, Node[]>();
+			for (Map.Entry<String, List<Node>> e : paths2.entrySet())
+				contextMap.put(e.getKey(), e.getValue().toArray(new Node[e.getValue().size()]));
+			this.nodesByContext = new RouteIndex<Node[]>(contextMap);
+
+			Map<String, List<Node>> domains = new HashMap<String, List<Node>>();
+			for (Node nod : this.nodeArray) {
+				String domain = nod.getDomain();
+				if (domain == null || domain.isEmpty())
+					continue;
+				List<Node> list = domains.get(domain);
+				if (list == null) {
+					list = new ArrayList<Node>();
+					domains.put(domain, list);
+				}
+				list.add(nod);
+			}
+			Map<String, Node[]> domainMap = new HashMap<String, Node[]>();
+			for (Map.Entry<String, List<Node>> e : domains.entrySet())
+				domainMap.put(e.getKey(), e.getValue().toArray(new Node[e.getValue().size()]));
+			this.nodesByDomain = new RouteIndex<Node[]>(domainMap);
+
+			// Routing table: host alias -> context path -> eligible nodes
+			Map<Long, VHost> hostsById = new HashMap<Long, VHost>();
+			for (VHost hos : this.hosts)
+				hostsById.put(hos.getId(), hos);
+			Map<String, List<Context>> byHost = new HashMap<String, List<Context>>();
+			for (Context con : this.contexts) {
+				VHost hos = hostsById.get(con.getHostid());
+				if (hos == null)
+					continue;
+				for (String alias : hos.getAliases()) {
+					String key = alias.trim().toLowerCase();
+					List<Context> list = byHost.get(key);
+					if (list == null) {
+						list = new ArrayList<Context>();
+						byHost.put(key, list);
+					}
+					list.add(con);
+				}
+			}
+			Map<String, ContextNodes[]> hostTable = new HashMap<String, ContextNodes[]>();
+			for (Map.Entry<String, List<Context>> e : byHost.entrySet())
+				hostTable.put(e.getKey(), ContextNodes.build(e.getValue(), nodeMap));
+			this.contextsByHost = new RouteIndex<ContextNodes[]>(hostTable);
+			this.allContexts = ContextNodes.build(this.contexts, nodeMap);
 		}
 	}
 
-	public void insertupdate(Balancer balancer) {
-		if (getBalancers().isEmpty()) {
-			getBalancers().add(balancer);
-		} else {
-			for (Balancer bal : getBalancers()) {
-				if (bal.getName().equals(balancer.getName())) {
-					// replace it.
-					// TODO that is more tricky see mod_cluster C code.
-					getBalancers().remove(bal);
-					getBalancers().add(balancer);
-					break; // Done
+	/**
+	 * {@code ContextNodes}
+	 * <p>
+	 * The nodes serving a context path of a host. New sessions are only sent
+	 * to the nodes having the context <tt>ENABLED</tt>, while existing
+	 * sessions may also go to the nodes having it <tt>DISABLED</tt>.
+	 * </p>
+	 */
+	public static final class ContextNodes {
+		private final byte path[];
+		private final Node enabled[];
+		private final Node sticky[];
+
+		private ContextNodes(String path, Node enabled[], Node sticky[]) {
+			this.path = new byte[path.length()];
+			for (int i = 0; i < this.path.length; i++)
+				this.path[i] = (byte) path.charAt(i);
+			this.enabled = enabled;
+			this.sticky = sticky;
+		}
+
+		/*
+		 * Group the contexts by path, the longest paths first.
+		 */
+		private static ContextNodes[] build(List<Context> contexts, Map<String, Node> nodeMap) {
+			Map<String, List<Node>> enabled = new HashMap<String, List<Node>>();
+			Map<String, List<Node>> sticky = new HashMap<String, List<Node>>();
+			for (Context con : contexts) {
+				Node nod = nodeMap.get(con.getJVMRoute());
+				String path = con.getPath();
+				if (nod == null || path == null)
+					continue;
+				if (path.length() > 1 && path.endsWith("/"))
+					path = path.substring(0, path.length() - 1);
+				if (!enabled.containsKey(path)) {
+					enabled.put(path, new ArrayList<Node>());
+					sticky.put(path, new ArrayList<Node>());
 				}
+				if (con.isStopped())
+					continue;
+				if (con.isEnabled() && !enabled.get(path).contains(nod))
+					enabled.get(path).add(nod);
+				if (!sticky.get(path).contains(nod))
+					sticky.get(path).add(nod);
+			}
+			List<ContextNodes> list = new ArrayList<ContextNodes>();
+			for (String path : enabled.keySet()) {
+				List<Node> en = enabled.get(path);
+				List<Node> st = sticky.get(path);
+				list.add(new ContextNodes(path, en.toArray(new Node[en.size()]), st
+						.toArray(new Node[st.size()])));
+			}
+			Collections.sort(list, new Comparator<ContextNodes>() {
+				@Override
+				public int compare(ContextNodes o1, ContextNodes o2) {
+					return o2.path.length - o1.path.length;
+				}
+			});
+			return list.toArray(new ContextNodes[list.size()]);
+		}
+
+		/*
+		 * Check whether the URI starts with the context path, on a path
+		 * segment boundary.
+		 */
+		private boolean matches(byte uri[], int off, int len) {
+			int n = path.length;
+			if (n == 1 && path[0] == '/')
+				return true;
+			if (len < n)
+				return false;
+			for (int i = 0; i < n; i++) {
+				if (uri[off + i] != path[i])
+					return false;
+			}
+			if (len == n)
+				return true;
+			byte c = uri[off + n];
+			return c == '/' || c == ';' || c == '?';
+		}
+
+		/**
+		 * @return the nodes which accept new sessions for the context
+		 */
+		public Node[] getEnabledNodes() {
+			return enabled;
+		}
+
+		/**
+		 * @return the nodes which accept the existing sessions of the context
+		 */
+		public Node[] getStickyNodes() {
+			return sticky;
+		}
+
+		/**
+		 * @param node
+		 * @return <tt>true</tt> if the node accepts the existing sessions of
+		 *         the context
+		 */
+		public boolean acceptsSession(Node node) {
+			for (Node nod : sticky) {
+				if (nod == node)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * No context matches the request
+	 */
+	public static final ContextNodes NO_CONTEXT = new ContextNodes("", new Node[0], new Node[0]);
+
+	/**
+	 * Find the context serving the request, by longest prefix of the URI
+	 * among the contexts of the host.
+	 * 
+	 * @param host
+	 *            the bytes of the host name, without the port
+	 * @param hoff
+	 * @param hlen
+	 *            the length of the host name, 0 if unknown
+	 * @param uri
+	 *            the bytes of the request URI
+	 * @param uoff
+	 * @param ulen
+	 * @return the nodes of the context, {@link #NO_CONTEXT} if no context
+	 *         matches, or <tt>null</tt> if there is no context configured at
+	 *         all
+	 */
+	public ContextNodes getContextNodes(byte host[], int hoff, int hlen, byte uri[], int uoff,
+			int ulen) {
+		Snapshot snap = snapshot;
+		if (snap.allContexts.length == 0)
+			return null;
+		ContextNodes candidates[] = null;
+		if (hlen > 0)
+			candidates = snap.contextsByHost.getIgnoreCase(host, hoff, hlen);
+		if (candidates == null)
+			candidates = snap.allContexts;
+		for (ContextNodes con : candidates) {
+			if (con.matches(uri, uoff, ulen))
+				return con;
+		}
+		return NO_CONTEXT;
+	}
+
+	/*
+	 * Publish a new snapshot of the configuration. Must be called with the
+	 * lock held after each update.
+	 */
+	private void publish() {
+		snapshot = new Snapshot(nodes, balancers, hosts, contexts);
+		updateLbstatus();
+	}
+
+	public synchronized void insertupdate(Node node) {
+		int i = 1;
+		Node replace = null;
+		for (Node nod : nodes) {
+			if (nod.getJvmRoute().equals(node.getJvmRoute())) {
+				// replace it.
+				// TODO that is more tricky see mod_cluster C code.
+				replace = nod;
+				break;
+			} else {
+				i++;
+			}
+		}
+		if (replace != null) {
+			node.setId(replace.getId());
+			if (replace != node) {
+				nodes.remove(replace);
+				nodes.add(node);
+			}
+		} else {
+			node.setId(i);
+			nodes.add(node);
+		}
+		publish();
+	}
+
+	public synchronized void insertupdate(Balancer balancer) {
+		Balancer replace = null;
+		for (Balancer bal : balancers) {
+			if (bal.getName().equals(balancer.getName())) {
+				// replace it.
+				// TODO that is more tricky see mod_cluster C code.
+				replace = bal;
+				break; // Done
 			}
 		}
+		if (replace != null)
+			balancers.remove(replace);
+		balancers.add(balancer);
+		publish();
+	}
+
+	/**
+	 * @return the index of the balancers by sticky session cookie name
+	 */
+	public RouteIndex<Balancer> getStickyCookies() {
+		return snapshot.stickyCookies;
+	}
+
+	/**
+	 * @return the index of the balancers by sticky session path parameter name
+	 */
+	public RouteIndex<Balancer> getStickyPaths() {
+		return snapshot.stickyPaths;
+	}
+
+	/**
+	 * Find the node having the JVMRoute contained in the specified bytes
+	 * 
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @return the node or <tt>null</tt>
+	 */
+	public Node getNode(byte b[], int off, int len) {
+		return snapshot.routes.get(b, off, len);
+	}
+
+	/**
+	 * @param name
+	 * @return the balancer having the specified name, or <tt>null</tt>
+	 */
+	public Balancer getBalancer(String name) {
+		return snapshot.balancersByName.get(name);
+	}
+
+	/**
+	 * @param alias
+	 * @return the virtual hosts having the specified alias, or <tt>null</tt>
+	 */
+	public VHost[] getHosts(String alias) {
+		return snapshot.hostsByAlias.get(alias);
+	}
+
+	/**
+	 * @param path
+	 * @return the nodes having a context with the specified path, or
+	 *         <tt>null</tt>
+	 */
+	public Node[] getContextNodes(String path) {
+		return snapshot.nodesByContext.get(path);
+	}
+
+	/**
+	 * @param domain
+	 * @return the nodes of the domain, or <tt>null</tt> if the domain is
+	 *         empty or unknown
+	 */
+	public Node[] getDomainNodes(String domain) {
+		if (domain == null || domain.isEmpty())
+			return null;
+		return snapshot.nodesByDomain.get(domain);
 	}
 
+	/**
+	 * @return an immutable view of the nodes
+	 */
 	public List<Node> getNodes() {
-		return nodes;
+		return snapshot.nodes;
 	}
 
-	public void setNodes(List<Node> nodes) {
-		this.nodes = nodes;
+	public synchronized void setNodes(List<Node> nodes) {
+		this.nodes = new ArrayList<Node>(nodes);
+		publish();
 	}
 
+	/**
+	 * @return an immutable view of the virtual hosts
+	 */
 	public List<VHost> getHosts() {
-		return hosts;
+		return snapshot.hosts;
 	}
 
-	public void setHosts(List<VHost> hosts) {
-		this.hosts = hosts;
+	public synchronized void setHosts(List<VHost> hosts) {
+		this.hosts = new ArrayList<VHost>(hosts);
+		publish();
 	}
 
 	public long getNodeId(String jvmRoute) {
-		for (Node nod : getNodes()) {
-			if (nod.getJvmRoute().equals(jvmRoute)) {
-				return nod.getId();
-			}
-		}
-		return -1;
+		Node nod = getNode(jvmRoute);
+		return nod == null ? -1 : nod.getId();
 	}
 
+	/**
+	 * @return an immutable view of the contexts
+	 */
 	public List<Context> getContexts() {
-		return contexts;
+		return snapshot.contexts;
 	}
 
-	public void setContexts(List<Context> contexts) {
-		this.contexts = contexts;
+	public synchronized void setContexts(List<Context> contexts) {
+		this.contexts = new ArrayList<Context>(contexts);
+		publish();
 	}
 
+	/**
+	 * @return an immutable view of the balancers
+	 */
 	public List<Balancer> getBalancers() {
-		return balancers;
+		return snapshot.balancers;
 	}
 
-	public void setBalancers(List<Balancer> balancers) {
-		this.balancers = balancers;
+	public synchronized void setBalancers(List<Balancer> balancers) {
+		this.balancers = new ArrayList<Balancer>(balancers);
+		publish();
 	}
 
 	public Node getNode(String jvmRoute) {
-		for (Node nod : getNodes()) {
-			if (nod.getJvmRoute().equals(jvmRoute)) {
-				return nod;
-			}
-		}
-		return null;
+		return snapshot.routes.get(jvmRoute);
 	}
 
-	public long insertupdate(VHost host) {
+	public synchronized long insertupdate(VHost host) {
 		int i = 1;
-		if (getHosts().isEmpty()) {
-			host.setId(i);
-			getHosts().add(host);
-			return 1;
-		} else {
-			for (VHost hos : getHosts()) {
-				if (hos.getJVMRoute().equals(host.getJVMRoute())
-						&& isSame(host.getAliases(), hos.getAliases())) {
-					return hos.getId();
-				}
-				i++;
+		for (VHost hos : hosts) {
+			if (hos.getJVMRoute().equals(host.getJVMRoute())
+					&& isSame(host.getAliases(), hos.getAliases())) {
+				return hos.getId();
 			}
+			i++;
 		}
 		host.setId(i);
-		getHosts().add(host);
+		hosts.add(host);
+		publish();
 		return i;
 	}
 
@@ -182,7 +574,7 @@ public class MCMConfig {
 		if (aliases.length != aliases2.length)
 			return false;
 		for (String host : aliases)
-			if (isNotIn(host, aliases))
+			if (isNotIn(host, aliases2))
 				return false;
 		return true;
 	}
@@ -194,66 +586,244 @@ public class MCMConfig {
 		return true;
 	}
 
-	public void insertupdate(Context context) {
-		if (getContexts().isEmpty()) {
-			getContexts().add(context);
-			return;
-		} else {
-			for (Context con : getContexts()) {
-				if (context.getJVMRoute().equals(con.getJVMRoute())
-						&& context.getHostid() == con.getHostid()
-						&& context.getPath() == con.getPath()) {
-					// update the status.
-					con.setStatus(context.getStatus());
-					return;
-				}
+	public synchronized void insertupdate(Context context) {
+		for (Context con : contexts) {
+			if (context.getJVMRoute().equals(con.getJVMRoute())
+					&& context.getHostid() == con.getHostid()
+					&& context.getPath().equals(con.getPath())) {
+				// update the status.
+				con.setStatus(context.getStatus());
+				publish();
+				return;
 			}
-			getContexts().add(context);
 		}
+		contexts.add(context);
+		publish();
 	}
 	
 	/* get the least loaded node according to the tablel values */
 
 	public Node getNode() {
+		return getNode((Node) null);
+	}
+
+	/* get the least loaded node other than excluded (null to exclude none) */
+
+	public Node getNode(Node excluded) {
+		return getNode(snapshot.nodeArray, null, true, excluded);
+	}
+
+	/* get the least loaded node among the candidates */
+
+	public Node getNode(Node candidates[]) {
+		return getNode(candidates, null, false, null);
+	}
+
+	/* get the least loaded node among the candidates which are also in restrict */
+
+	public Node getNode(Node candidates[], Node restrict[]) {
+		return getNode(candidates, restrict, false, null);
+	}
+
+	/* get the least loaded node among the candidates which are also in restrict, other than excluded */
+
+	public Node getNode(Node candidates[], Node restrict[], Node excluded) {
+		return getNode(candidates, restrict, false, excluded);
+	}
+
+	private Node getNode(Node candidates[], Node restrict[], boolean all, Node excluded) {
 		Node node = null;
-		for (Node nod : getNodes()) {
-			if (nod.getStatus() == Node.NodeStatus.NODE_DOWN)
-				continue; // skip it.
-			if (node != null) {
-				int status = ((node.getElected() - node.getOldelected()) * 1000) / node.getLoad();
-				int status1 = ((nod.getElected() - nod.getOldelected()) * 1000) / nod.getLoad();
-				if (status1 > status)
-					node = nod;
-			} else
-				node = nod;
+		long now = System.currentTimeMillis();
+		if (latency || leastRequests) {
+			/* The standby nodes (load factor of 0) are only used when no other candidate is available, as in LOAD mode */
+			node = getNodeByStatus(candidates, restrict, false, excluded, now);
+			if (node == null)
+				node = getNodeByStatus(candidates, restrict, true, excluded, now);
+		} else {
+			node = getNodeByLoad(candidates, restrict, all, excluded, now);
 		}
 		if (node != null)
-			node.setElected(node.getElected()+1);
+			node.incrementElected();
 		return node;
 	}
 
-	public void checkHealthNode() {
-		for (Node nod : getNodes()) {
-			if (nod.getElected() == nod.getOldelected()) {
-				// nothing change bad
-				// TODO and the CPING/CPONG
+	/*
+	 * Return the available candidate having the lowest status in LATENCY or
+	 * LEAST_REQUESTS mode, among the standby nodes or among the others.
+	 */
+	private Node getNodeByStatus(Node candidates[], Node restrict[], boolean standby, Node excluded,
+			long now) {
+		Node node = null;
+		for (Node nod : candidates) {
+			if (nod == excluded || !nod.isAvailable(now))
+				continue; // skip it.
+			if (standby ? nod.getLoad() != 0 : nod.getLoad() <= 0)
+				continue;
+			if (restrict != null && !contains(restrict, nod))
+				continue;
+			if (node == null) {
+				node = nod;
+			} else if (latency) {
+				// Lowest average time to first byte, weighted by the requests
+				// in flight and the load factor. Nodes without measure yet
+				// are preferred so that they get one.
+				if (nod.getTtfb() == 0) {
+					if (node.getTtfb() != 0)
+						node = nod;
+					continue;
+				}
+				if (node.getTtfb() == 0)
+					continue;
+				double status = (double) node.getTtfb() * (node.getInFlight() + 1)
+						* effectiveLoad(nod, now);
+				double status1 = (double) nod.getTtfb() * (nod.getInFlight() + 1)
+						* effectiveLoad(node, now);
+				if (status1 < status)
+					node = nod;
 			} else {
-				nod.setOldelected(nod.getElected());
+				// Least requests in flight relatively to the load factor
+				double status = (node.getInFlight() + 1.0) * effectiveLoad(nod, now);
+				double status1 = (nod.getInFlight() + 1.0) * effectiveLoad(node, now);
+				if (status1 < status)
+					node = nod;
+			}
+		}
+		return node;
+	}
+
+	/*
+	 * Walk the lbstatus schedule from the shared cursor and return the first
+	 * available candidate. The nodes having a load factor of 0 are only used
+	 * when no other candidate is available (standby nodes).
+	 */
+	private Node getNodeByLoad(Node candidates[], Node restrict[], boolean all, Node excluded,
+			long now) {
+		Node seq[] = schedule;
+		int n = seq.length;
+		Node fallback = null;
+		if (n > 0) {
+			int start = (cursor.getAndIncrement() & Integer.MAX_VALUE) % n;
+			for (int i = 0; i < n; i++) {
+				int index = start + i;
+				Node nod = seq[index < n ? index : index - n];
+				if (nod != excluded && nod.isAvailable(now) && (all || contains(candidates, nod))
+						&& (restrict == null || contains(restrict, nod))) {
+					// A node in slow start is only elected for its share
+					double factor = nod.getSlowStartFactor(now, slowStart);
+					if (factor >= 1.0 || ThreadLocalRandom.current().nextDouble() < factor)
+						return nod;
+					if (fallback == null)
+						fallback = nod;
+				}
+			}
+		}
+		if (fallback != null)
+			return fallback;
+		for (Node nod : candidates) {
+			if (nod != excluded && nod.isAvailable(now) && nod.getLoad() == 0
+					&& (restrict == null || contains(restrict, nod)))
+				return nod;
+		}
+		return null;
+	}
+
+	/*
+	 * The load factor of the node reduced to its share during its slow start,
+	 * a standby node counting as the lowest load factor.
+	 */
+	private double effectiveLoad(Node node, long now) {
+		return Math.max(node.getLoad(), 1) * node.getSlowStartFactor(now, slowStart);
+	}
+
+	private static boolean contains(Node nodes[], Node node) {
+		for (Node nod : nodes) {
+			if (nod == node)
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Recalculate the lbstatus of the nodes and the schedule used to elect
+	 * them, as the byrequests method of mod_proxy_balancer does: at each
+	 * election the lbstatus of every node is increased by its lbfactor (the
+	 * load sent through STATUS), the node having the highest lbstatus is
+	 * elected and its lbstatus is decreased by the sum of the lbfactors. The
+	 * elections of a whole cycle are computed here once, so that a request
+	 * only moves a cursor over them.
+	 */
+	private synchronized void updateLbstatus() {
+		Node nodeArray[] = snapshot.nodeArray;
+		int lbfactors[] = new int[nodeArray.length];
+		int gcd = 0;
+		for (int i = 0; i < nodeArray.length; i++) {
+			Node nod = nodeArray[i];
+			int load = nod.getLoad();
+			int elected = nod.getElected() - nod.getOldelected();
+			// The status of the previous period, for the information only
+			nod.setLbstatus(load > 0 ? (elected * 1000) / load : 0);
+			lbfactors[i] = load > 0 ? Math.min(load, MAX_LBFACTOR) : 0;
+			gcd = gcd(gcd, lbfactors[i]);
+		}
+		int total = 0;
+		for (int i = 0; i < lbfactors.length; i++) {
+			if (gcd > 1)
+				lbfactors[i] /= gcd;
+			total += lbfactors[i];
+		}
+
+		Node seq[] = new Node[total];
+		int lbstatus[] = new int[nodeArray.length];
+		for (int n = 0; n < total; n++) {
+			int best = -1;
+			for (int i = 0; i < nodeArray.length; i++) {
+				if (lbfactors[i] == 0)
+					continue;
+				lbstatus[i] += lbfactors[i];
+				if (best < 0 || lbstatus[i] > lbstatus[best])
+					best = i;
 			}
+			lbstatus[best] -= total;
+			seq[n] = nodeArray[best];
 		}
+		schedule = seq;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/* eject the outliers among the nodes if the detection interval is elapsed */
+
+	public void detectOutliers(long now) {
+		outliers.detect(snapshot.nodeArray, now);
+	}
+
+	public void checkHealthNode() {
+		// TODO if elected did not change the node may be broken, CPING/CPONG
+		updateLbstatus();
+		for (Node nod : snapshot.nodeArray)
+			nod.setOldelected(nod.getElected());
 	}
 	
 	/*
 	 * remove the context and the corresponding host if that is last context of the host.
 	 */
 
-	public void remove(Context context, VHost host) {
-		for (Context con : getContexts()) {
+	public synchronized void remove(Context context, VHost host) {
+		for (Context con : contexts) {
+			VHost hos = getHostById(con.getHostid());
 			if (context.getJVMRoute().equals(con.getJVMRoute())
-					&& isSame(getHostById(con.getHostid()).getAliases(), host.getAliases())
+					&& hos != null && isSame(hos.getAliases(), host.getAliases())
 					&& context.getPath().equals(con.getPath())) {
-				getContexts().remove(con);
+				contexts.remove(con);
 				removeEmptyHost(con.getHostid());
+				publish();
 				return;
 			}
 		
@@ -262,18 +832,18 @@ public class MCMConfig {
 
 	private void removeEmptyHost(long hostid) {
 		boolean remove = true;
-		for (Context con : getContexts()) {
+		for (Context con : contexts) {
 			if (con.getHostid() == hostid) {
 				remove = false;
 				break;
 			}
 		}
 		if (remove)
-			getHosts().remove(getHostById(hostid));
+			hosts.remove(getHostById(hostid));
 	}
 
 	private VHost getHostById(long hostid) {
-		for (VHost hos : getHosts()) {
+		for (VHost hos : hosts) {
 			if (hos.getId() == hostid)
 				return hos;
 		}
@@ -283,30 +853,31 @@ public class MCMConfig {
 	/*
 	 * Remove the node, host, context corresponding to jvmRoute.
 	 */
-	public void removeNode(String jvmRoute) {
+	public synchronized void removeNode(String jvmRoute) {
 		List<Context> remcons = new ArrayList<Context>();
-		for (Context con : getContexts()) {
+		for (Context con : contexts) {
 			if (con.getJVMRoute().equals(jvmRoute))
 				remcons.add(con);
 		}
 		for (Context con : remcons )
-			getContexts().remove(con);
+			contexts.remove(con);
 				
 		List<VHost> remhosts = new ArrayList<VHost>();
-		for (VHost hos : getHosts()) {
+		for (VHost hos : hosts) {
 			if (hos.getJVMRoute().equals(jvmRoute))
 				remhosts.add(hos);
 		}
 		for (VHost hos : remhosts)
-			getHosts().remove(hos);
+			hosts.remove(hos);
 				
 		List<Node> remnodes = new ArrayList<Node>();
-		for (Node nod : getNodes()) {
+		for (Node nod : nodes) {
 			if (nod.getJvmRoute().equals(jvmRoute))
 				remnodes.add(nod);
 		}
 		for (Node nod : remnodes)
-			getNodes().remove(nod);
+			nodes.remove(nod);
+		publish();
 	}
 	
 }
\ No newline at end of file
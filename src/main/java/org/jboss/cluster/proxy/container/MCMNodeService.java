@@ -23,9 +23,9 @@ package org.jboss.cluster.proxy.container;
 
 import org.apache.LifeCycleServiceAdapter;
 import org.apache.coyote.Request;
-import org.apache.tomcat.util.http.Cookies;
-import org.apache.tomcat.util.http.ServerCookie;
-import org.jboss.cluster.proxy.container.Node.NodeStatus;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.MimeHeaders;
 
 /**
  * {@code MCMNodeService}
@@ -36,6 +36,7 @@ import org.jboss.cluster.proxy.container.Node.NodeStatus;
  */
 public class MCMNodeService extends LifeCycleServiceAdapter implements NodeService {
 	static MCMConfig conf = MCMPAdapter.conf;
+	private static final int MAX_ATTEMPTS = 3;
 
 	@Override
 	public void init() throws Exception {
@@ -44,46 +45,259 @@ public class MCMNodeService extends LifeCycleServiceAdapter implements NodeServi
 
 	@Override
 	public Node getNode(Request request) {
-		System.out.println("MCMNodeService: getNode");
-		Cookies cookies = request.getCookies();
-		Balancer ba = null;
-		String value = null;
-		for (int i = 0; i < cookies.getCookieCount(); i++) {
-			ServerCookie co = cookies.getCookie(i);
-			String name = co.getName().getString();
-			for (Balancer bal : conf.getBalancers()) {
-				if (name.equals(bal.getStickySessionCookie())) {
-					ba = bal;
-					value = co.getValue().getString();
-					break; // Found the balancer.
+		return getNode(request, null, System.currentTimeMillis());
+	}
+
+	/* Select a node for the request other than the excluded node (the node which has just failed) */
+	private Node getNode(Request request, Node excluded, long now) {
+		/* A node in half-open state may run out of probes between its selection and the acquisition */
+		conf.detectOutliers(now);
+		for (int i = 0; i < MAX_ATTEMPTS; i++) {
+			now = System.currentTimeMillis();
+			Node node = selectNode(request, excluded, now);
+			if (node == null || node.getCircuitBreaker().tryAcquire(now))
+				return node;
+		}
+		return null;
+	}
+
+	private Node selectNode(Request request, Node excluded, long now) {
+		MCMConfig.ContextNodes context = getContextNodes(request);
+		Node node = getStickyNode(request);
+		if (node != null && node != excluded && node.isAvailable(now)
+				&& (context == null || context.acceptsSession(node))) {
+			return node;
+		}
+		if (node != null) {
+			// The node of the session is not available, prefer the nodes of
+			// its domain which may have a replica of the session
+			Node domain[] = conf.getDomainNodes(node.getDomain());
+			if (domain != null) {
+				Node failover = conf.getNode(domain,
+						context == null ? null : context.getEnabledNodes(), excluded);
+				if (failover != null) {
+					return failover;
+				}
+			}
+		}
+		if (context == null) {
+			// No context configured, any node can serve the request
+			return conf.getNode(excluded);
+		}
+		return conf.getNode(context.getEnabledNodes(), null, excluded);
+	}
+
+	/**
+	 * Map the host and URI of the request to the nodes of the context
+	 * 
+	 * @param request
+	 * @return the nodes of the context serving the request, or <tt>null</tt>
+	 *         if no context is configured
+	 * @see MCMConfig#getContextNodes(byte[], int, int, byte[], int, int)
+	 */
+	private MCMConfig.ContextNodes getContextNodes(Request request) {
+		byte host[] = null;
+		int hostStart = 0;
+		int hostEnd = 0;
+		MimeHeaders headers = request.getMimeHeaders();
+		int pos = headers.findHeader("Host", 0);
+		if (pos >= 0) {
+			MessageBytes value = headers.getValue(pos);
+			if (value.getType() != MessageBytes.T_BYTES) {
+				value.toBytes();
+			}
+			ByteChunk bc = value.getByteChunk();
+			host = bc.getBuffer();
+			hostStart = bc.getStart();
+			hostEnd = bc.getEnd();
+			// Remove the port
+			if (hostEnd > hostStart && host[hostStart] == '[') {
+				// IPv6 literal
+				int i = hostStart;
+				while (i < hostEnd && host[i] != ']') {
+					i++;
+				}
+				hostEnd = Math.min(i + 1, hostEnd);
+			} else {
+				for (int i = hostStart; i < hostEnd; i++) {
+					if (host[i] == ':') {
+						hostEnd = i;
+						break;
+					}
+				}
+			}
+		}
+
+		MessageBytes uri = request.requestURI();
+		if (uri.getType() != MessageBytes.T_BYTES) {
+			uri.toBytes();
+		}
+		ByteChunk bc = uri.getByteChunk();
+		return conf.getContextNodes(host, hostStart, hostEnd - hostStart, bc.getBuffer(),
+				bc.getStart(), bc.getLength());
+	}
+
+	/**
+	 * Find the node of the session from the sticky session cookies, or else
+	 * from the sticky session path parameter of the URI. The raw
+	 * <tt>Cookie</tt> headers and URI are scanned in place, without parsing all
+	 * the cookies nor creating strings.
+	 * 
+	 * @param request
+	 * @return the node of the session, or <tt>null</tt> if there is no sticky
+	 *         session cookie or if its route is unknown
+	 */
+	private Node getStickyNode(Request request) {
+		RouteIndex<Balancer> cookies = conf.getStickyCookies();
+		if (cookies.isEmpty()) {
+			return getPathNode(request);
+		}
+		MimeHeaders headers = request.getMimeHeaders();
+		int pos = headers.findHeader("Cookie", 0);
+		while (pos >= 0) {
+			MessageBytes value = headers.getValue(pos);
+			if (value.getType() != MessageBytes.T_BYTES) {
+				value.toBytes();
+			}
+			ByteChunk bc = value.getByteChunk();
+			Node node = findStickyNode(cookies, bc.getBuffer(), bc.getStart(), bc.getEnd());
+			if (node != null) {
+				return node;
+			}
+			pos = headers.findHeader("Cookie", pos + 1);
+		}
+
+		return getPathNode(request);
+	}
+
+	/**
+	 * Find the node of the session from the sticky session path parameter of
+	 * the raw request URI, e.g. <tt>/app/index.jsp;jsessionid=XXX.route</tt>
+	 * 
+	 * @param request
+	 * @return the node of the session, or <tt>null</tt>
+	 */
+	private Node getPathNode(Request request) {
+		RouteIndex<Balancer> paths = conf.getStickyPaths();
+		if (paths.isEmpty()) {
+			return null;
+		}
+		MessageBytes uri = request.requestURI();
+		if (uri.getType() != MessageBytes.T_BYTES) {
+			uri.toBytes();
+		}
+		ByteChunk bc = uri.getByteChunk();
+		byte b[] = bc.getBuffer();
+		int end = bc.getEnd();
+		int pos = bc.getStart();
+		// Most of the requests have no path parameter
+		while (pos < end && b[pos] != ';') {
+			if (b[pos] == '?') {
+				return null;
+			}
+			pos++;
+		}
+		while (pos < end && b[pos] == ';') {
+			int nameStart = ++pos;
+			while (pos < end && b[pos] != '=' && b[pos] != ';' && b[pos] != '/' && b[pos] != '?') {
+				pos++;
+			}
+			if (pos >= end || b[pos] != '=') {
+				continue;
+			}
+			int nameEnd = pos++;
+			int valueStart = pos;
+			while (pos < end && b[pos] != ';' && b[pos] != '/' && b[pos] != '?') {
+				pos++;
+			}
+			if (paths.get(b, nameStart, nameEnd - nameStart) != null) {
+				for (int i = pos - 1; i >= valueStart; i--) {
+					if (b[i] == '.') {
+						return conf.getNode(b, i + 1, pos - i - 1);
+					}
+				}
+				return null;
+			}
+			if (pos < end && b[pos] == '/') {
+				// Parameter of an intermediate segment, look further
+				while (pos < end && b[pos] != ';') {
+					if (b[pos] == '?') {
+						return null;
+					}
+					pos++;
 				}
 			}
-			if (ba != null)
-				break;
 		}
 
-		Node node = null;
-		if (ba != null) {
-			// we have a balancer and a cookie
-			int index = value.lastIndexOf('.');
-			if (index != -1)
-				node = conf.getNode(value.substring(index + 1));
-		} else {
-			// TODO complete code here
-			node = conf.getNode();
+		return null;
+	}
+
+	/**
+	 * Scan a raw <tt>Cookie</tt> header value (<tt>name=value; name=value</tt>)
+	 * looking for a sticky session cookie, and resolve the route which follows
+	 * the last '.' of its value.
+	 * 
+	 * @param cookies
+	 *            the index of the balancers by sticky session cookie name
+	 * @param b
+	 *            the header bytes
+	 * @param start
+	 *            the start of the header value
+	 * @param end
+	 *            the end of the header value
+	 * @return the node of the session, or <tt>null</tt>
+	 */
+	private static Node findStickyNode(RouteIndex<Balancer> cookies, byte b[], int start, int end) {
+		int pos = start;
+		while (pos < end) {
+			// Skip the separators
+			while (pos < end && (b[pos] == ' ' || b[pos] == ';' || b[pos] == ',' || b[pos] == '\t')) {
+				pos++;
+			}
+			int nameStart = pos;
+			while (pos < end && b[pos] != '=' && b[pos] != ';' && b[pos] != ',') {
+				pos++;
+			}
+			int nameEnd = pos;
+			while (nameEnd > nameStart && (b[nameEnd - 1] == ' ' || b[nameEnd - 1] == '\t')) {
+				nameEnd--;
+			}
+			if (pos >= end || b[pos] != '=') {
+				continue;
+			}
+			pos++;
+			while (pos < end && (b[pos] == ' ' || b[pos] == '\t')) {
+				pos++;
+			}
+			int valueStart = pos;
+			while (pos < end && b[pos] != ';' && b[pos] != ',') {
+				pos++;
+			}
+			int valueEnd = pos;
+			if (cookies.get(b, nameStart, nameEnd - nameStart) == null) {
+				continue;
+			}
+			// Strip the spaces and quotes around the value
+			while (valueEnd > valueStart
+					&& (b[valueEnd - 1] == ' ' || b[valueEnd - 1] == '\t' || b[valueEnd - 1] == '"')) {
+				valueEnd--;
+			}
+			for (int i = valueEnd - 1; i >= valueStart; i--) {
+				if (b[i] == '.') {
+					return conf.getNode(b, i + 1, valueEnd - i - 1);
+				}
+			}
+			return null;
 		}
-		System.out.println("getNode returns: " + node);
-		return node;
+
+		return null;
 	}
 
 	@Override
 	public Node getNode(Request request, Node failed) {
-		System.out.println("MCMNodeService: getNode (failed:" + failed + ")");
-		if (failed != null) {
-			failed.setStatus(NodeStatus.NODE_DOWN);
-			conf.insertupdate(failed);
-		}
-		return this.getNode(request);
+		/* The failed node may still be available until its circuit breaker opens, skip it for this request */
+		failedNode(failed);
+		return this.getNode(request, failed, System.currentTimeMillis());
 	}
 
 	/*
@@ -94,8 +308,9 @@ public class MCMNodeService extends LifeCycleServiceAdapter implements NodeServi
 	@Override
 	public int getActiveNodes() {
 		int count = 0;
+		long now = System.currentTimeMillis();
 		for (Node nod : conf.getNodes()) {
-			if (nod.isNodeUp()) {
+			if (nod.isAvailable(now)) {
 				count++;
 			}
 		}
@@ -111,9 +326,8 @@ public class MCMNodeService extends LifeCycleServiceAdapter implements NodeServi
 	 * .proxy.container.Node)
 	 */
 	public void failedNode(Node node) {
-		if (node != null) {
-			node.setNodeDown();
-			conf.insertupdate(node);
-		}
+		/* The status of the node is managed by MCMP, only its circuit breaker is updated */
+		if (node != null)
+			node.getCircuitBreaker().onFailure(System.currentTimeMillis());
 	}
 }
@@ -37,6 +37,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.Parameters;
 import org.apache.tomcat.util.net.SocketStatus;
+import org.jboss.cluster.proxy.ConnectionManager;
 import org.jboss.cluster.proxy.container.Context.Status;
 
 /**
@@ -419,7 +420,7 @@ public class MCMPAdapter implements Adapter {
 					.append((node.isFlushpackets() ? "On" : "Off")).append(",Flushwait: ")
 					.append(node.getFlushwait()).append(",Ping: ").append(node.getPing())
 					.append(",Smax: ").append(node.getSmax()).append(",Ttl: ")
-					.append(node.getTtl()).append(",Elected: ").append(node.getElected())
+					.append(node.getTtl() / 1000).append(",Elected: ").append(node.getElected())
 					.append(",Read: ").append(node.getRead()).append(",Transfered: ")
 					.append(node.getTransfered()).append(",Connected: ")
 					.append(node.getConnected()).append(",Load: ").append(node.getLoad() + "\n");
@@ -528,7 +529,11 @@ public class MCMPAdapter implements Adapter {
 		}
 		node.setLoad(Integer.parseInt(load));
 		/* TODO we need to check the node here */
+		boolean recovered = !node.isNodeUp();
 		node.setStatus(Node.NodeStatus.NODE_UP);
+		if (recovered) {
+			prewarm(node);
+		}
 		process_OK(res);
 	}
 
@@ -731,7 +736,8 @@ public class MCMPAdapter implements Adapter {
 			} else if (name.equalsIgnoreCase("smax")) {
 				node.setSmax(Integer.valueOf(value[0]));
 			} else if (name.equalsIgnoreCase("ttl")) {
-				node.setTtl(Integer.valueOf(value[0]));
+				// The value is given in seconds
+				node.setTtl(Integer.valueOf(value[0]) * 1000);
 			} else if (name.equalsIgnoreCase("Timeout")) {
 				node.setTimeout(Integer.valueOf(value[0]));
 			} else {
@@ -740,11 +746,29 @@ public class MCMPAdapter implements Adapter {
 			}
 		}
 
+		if (balancer.getWaitWorker() > 0) {
+			// The value is given in seconds
+			node.setWaitWorker(balancer.getWaitWorker() * 1000);
+		}
 		conf.insertupdate(balancer);
 		conf.insertupdate(node);
+		prewarm(node);
 		process_OK(res);
 	}
 
+	/**
+	 * Open the first connections to the node, so that its first requests do
+	 * not pay the connect latency
+	 * 
+	 * @param node
+	 */
+	private void prewarm(Node node) {
+		ConnectionManager connectionManager = this.connector.getConnectionManager();
+		if (connectionManager != null) {
+			connectionManager.prewarm(node);
+		}
+	}
+
 	/**
 	 * If the process is OK, then add 200 HTTP status and its "OK" phrase
 	 * 
@@ -23,6 +23,7 @@ package org.jboss.cluster.proxy.container;
 
 import java.io.Serializable;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * {@code Node}
@@ -62,7 +63,7 @@ public class Node implements Serializable {
      */
 	private static final AtomicInteger counter = new AtomicInteger(0);
 	private long id;
-	private NodeStatus status = NodeStatus.NODE_UP;
+	private volatile NodeStatus status = NodeStatus.NODE_UP;
 	private String balancer = "mycluster";
 	private String jvmRoute;
 	private String domain = "";
@@ -97,6 +98,22 @@ public class Node implements Serializable {
 	 * (60_000 in milliseconds).
 	 */
 	private int ttl = 60000;
+	/**
+	 * Hard max of opened connections to the node (idle and busy). Default 0,
+	 * means that the connection manager default value is used.
+	 */
+	private int maxConnections = 0;
+	/**
+	 * Max time in milliseconds a request waits for a connection to the node
+	 * when the node connection limit is reached. Default 0, means that the
+	 * connection manager default value is used.
+	 */
+	private int waitWorker = 0;
+	/**
+	 * Static weight of the node, used by the weighted selection of the nodes.
+	 * Default 1.
+	 */
+	private int weight = 1;
 	/**
 	 * Max time the proxy will wait for the backend connection. Default 0 no
 	 * timeout value in seconds.
@@ -105,8 +122,12 @@ public class Node implements Serializable {
 	/**
 	 * Number of time the worker was chosen by the balancer logic
 	 */
-	private int elected;
-	private int oldelected;
+	private final AtomicInteger elected = new AtomicInteger(0);
+	private volatile int oldelected;
+	/**
+	 * Elections per 1000 units of load factor during the last period
+	 */
+	private volatile int lbstatus;
 	/**
 	 * Number of bytes read from the back-end
 	 */
@@ -119,10 +140,45 @@ public class Node implements Serializable {
 	 * Number of opened connections
 	 */
 	private int connected;
+	/**
+	 * Number of requests currently forwarded to the node and not yet completed
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	/**
+	 * Exponentially weighted moving average of the time to first byte of the
+	 * node responses, in microseconds. 0 until the first response.
+	 */
+	private final AtomicLong ttfb = new AtomicLong(0);
 	/**
 	 * Load factor received via the STATUS messages
 	 */
-	private int load;
+	private volatile int load;
+	/**
+	 * Time in milliseconds at which the node was registered or went back up
+	 */
+	private volatile long upSince = System.currentTimeMillis();
+	/**
+	 * Circuit breaker fed by the outcome of the requests forwarded to the node
+	 */
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+	/**
+	 * Statistics of the responses of the node, used by the outlier detection
+	 */
+	private final NodeStats stats = new NodeStats();
+	/**
+	 * Time in milliseconds until which the node is ejected by the outlier
+	 * detection
+	 */
+	private volatile long ejectedUntil = 0;
+	/**
+	 * Number of consecutive ejections of the node
+	 */
+	private volatile int ejections = 0;
+
+	/**
+	 * Share of its weight a node gets at the beginning of the slow start
+	 */
+	public static final double SLOW_START_MIN_FACTOR = 0.1;
 
 	/**
 	 * Does the node support the HTTP OPTIONS method?
@@ -170,9 +226,46 @@ public class Node implements Serializable {
 	 *            the status to set
 	 */
 	public void setStatus(NodeStatus status) {
+		if (status == NodeStatus.NODE_UP && this.status != NodeStatus.NODE_UP) {
+			this.upSince = System.currentTimeMillis();
+		}
 		this.status = status;
 	}
 
+	/**
+	 * @return the time in milliseconds at which the node was registered or
+	 *         went back up
+	 */
+	public long getUpSince() {
+		return this.upSince;
+	}
+
+	/**
+	 * Compute the share of its weight the node gets during its slow start.
+	 * The share grows linearly from {@link #SLOW_START_MIN_FACTOR} to 1 during
+	 * the slow start window following the registration or the recovery of the
+	 * node, either by its status, by its circuit breaker or by the end of its
+	 * ejection.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @param window
+	 *            the slow start window in milliseconds, 0 disables it
+	 * @return the share of the weight, 1 once the slow start is over
+	 */
+	public double getSlowStartFactor(long now, long window) {
+		long elapsed = now
+				- Math.max(Math.max(this.upSince, this.circuitBreaker.getClosedSince()),
+						this.ejectedUntil);
+		if (window <= 0 || elapsed >= window) {
+			return 1.0;
+		}
+		if (elapsed <= 0) {
+			return SLOW_START_MIN_FACTOR;
+		}
+		return SLOW_START_MIN_FACTOR + (1.0 - SLOW_START_MIN_FACTOR) * elapsed / window;
+	}
+
 	/**
 	 * @return <tt>true</tt> if the node is up else <tt>false</tt>
 	 */
@@ -187,6 +280,69 @@ public class Node implements Serializable {
 		setStatus(NodeStatus.NODE_UP);
 	}
 
+	/**
+	 * @return the circuit breaker of the node
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+
+	/**
+	 * Check whether the node may be selected for a request, i.e., its status
+	 * is {@link NodeStatus#NODE_UP}, it is not ejected and its circuit breaker
+	 * is closed or accepts probes. The probe itself is taken by
+	 * {@link CircuitBreaker#tryAcquire(long)} once the node is selected.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the node is available else <tt>false</tt>
+	 */
+	public boolean isAvailable(long now) {
+		return this.status == NodeStatus.NODE_UP && now >= this.ejectedUntil
+				&& this.circuitBreaker.isAvailable(now);
+	}
+
+	/**
+	 * @return the statistics of the responses of the node
+	 */
+	public NodeStats getStats() {
+		return this.stats;
+	}
+
+	/**
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the node is ejected by the outlier detection
+	 */
+	public boolean isEjected(long now) {
+		return now < this.ejectedUntil;
+	}
+
+	/**
+	 * Eject the node until the specified time
+	 * 
+	 * @param until
+	 *            the end of the ejection in milliseconds
+	 */
+	public void eject(long until) {
+		this.ejectedUntil = until;
+	}
+
+	/**
+	 * @return the number of consecutive ejections of the node
+	 */
+	public int getEjections() {
+		return this.ejections;
+	}
+
+	/**
+	 * @param ejections
+	 *            the number of consecutive ejections of the node
+	 */
+	public void setEjections(int ejections) {
+		this.ejections = ejections;
+	}
+
 	/**
 	 * @return <tt>true</tt> if the node is down else <tt>false</tt>
 	 */
@@ -405,6 +561,63 @@ public class Node implements Serializable {
 		this.ttl = ttl;
 	}
 
+	/**
+	 * Getter for maxConnections
+	 * 
+	 * @return the maxConnections
+	 */
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	/**
+	 * Setter for the maxConnections
+	 * 
+	 * @param maxConnections
+	 *            the maxConnections to set
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Getter for waitWorker
+	 * 
+	 * @return the waitWorker
+	 */
+	public int getWaitWorker() {
+		return this.waitWorker;
+	}
+
+	/**
+	 * Setter for the waitWorker
+	 * 
+	 * @param waitWorker
+	 *            the waitWorker to set
+	 */
+	public void setWaitWorker(int waitWorker) {
+		this.waitWorker = waitWorker;
+	}
+
+	/**
+	 * Getter for weight
+	 * 
+	 * @return the weight
+	 */
+	public int getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * Setter for the weight
+	 * 
+	 * @param weight
+	 *            the weight to set
+	 */
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+
 	/**
 	 * Getter for timeout
 	 * 
@@ -449,7 +662,7 @@ public class Node implements Serializable {
 	 * @return the elected
 	 */
 	public int getElected() {
-		return this.elected;
+		return this.elected.get();
 	}
 
 	/**
@@ -459,7 +672,16 @@ public class Node implements Serializable {
 	 *            the elected to set
 	 */
 	public void setElected(int elected) {
-		this.elected = elected;
+		this.elected.set(elected);
+	}
+
+	/**
+	 * Increment atomically the number of times the node was chosen
+	 * 
+	 * @return the new value of elected
+	 */
+	public int incrementElected() {
+		return this.elected.incrementAndGet();
 	}
 
 	/**
@@ -519,6 +741,56 @@ public class Node implements Serializable {
 		this.connected = connected;
 	}
 
+	/**
+	 * @return the number of requests in flight to the node
+	 */
+	public int getInFlight() {
+		return this.inFlight.get();
+	}
+
+	/**
+	 * Increment the number of requests in flight to the node
+	 * 
+	 * @return the new number of requests in flight
+	 */
+	public int incrementInFlight() {
+		return this.inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Decrement the number of requests in flight to the node
+	 * 
+	 * @return the new number of requests in flight
+	 */
+	public int decrementInFlight() {
+		return this.inFlight.decrementAndGet();
+	}
+
+	/**
+	 * @return the moving average of the time to first byte in microseconds,
+	 *         or 0 if no response was received yet
+	 */
+	public long getTtfb() {
+		return this.ttfb.get();
+	}
+
+	/**
+	 * Add a sample to the moving average of the time to first byte. Each new
+	 * sample accounts for 1/8 of the average.
+	 * 
+	 * @param micros
+	 *            the time to first byte of a response in microseconds
+	 */
+	public void updateTtfb(long micros) {
+		long sample = Math.max(micros, 1);
+		long old;
+		long value;
+		do {
+			old = this.ttfb.get();
+			value = (old == 0) ? sample : old + ((sample - old) >> 3);
+		} while (!this.ttfb.compareAndSet(old, Math.max(value, 1)));
+	}
+
 	/**
 	 * Getter for load
 	 * 
@@ -568,7 +840,10 @@ public class Node implements Serializable {
 				.append(getSmax()).append(",Ttl: ").append(getTtl()).append(",Elected: ")
 				.append(getElected()).append(",Read: ").append(getRead()).append(",Transfered: ")
 				.append(getTransfered()).append(",Connected: ").append(getConnected())
-				.append(",Load: ").append(getLoad()).append("\n").toString();
+				.append(",Load: ").append(getLoad()).append(",InFlight: ").append(getInFlight())
+				.append(",Ttfb: ").append(getTtfb()).append(",Breaker: ")
+				.append(this.circuitBreaker).append(",Ejections: ").append(getEjections())
+				.append("\n").toString();
 	}
 
 	/*
@@ -604,4 +879,19 @@ public class Node implements Serializable {
 	public void setOldelected(int oldelected) {
 		this.oldelected = oldelected;
 	}
+
+	/**
+	 * @return the lbstatus computed at the last recalculation
+	 */
+	public int getLbstatus() {
+		return lbstatus;
+	}
+
+	/**
+	 * @param lbstatus
+	 *            the lbstatus to set
+	 */
+	public void setLbstatus(int lbstatus) {
+		this.lbstatus = lbstatus;
+	}
 }
@@ -0,0 +1,60 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import org.apache.coyote.Request;
+
+/**
+ * {@code NodeSelector}
+ * <p>
+ * The balancing strategy used by a node service to choose the node of a
+ * request. The selector works on an immutable snapshot of the nodes which is
+ * replaced by {@link #setNodes(Node[])} each time the list of nodes changes.
+ * Implementations must be thread safe and should not allocate per request.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public interface NodeSelector {
+
+	/**
+	 * Set the nodes among which the selector chooses. The array is not
+	 * modified after this call.
+	 * 
+	 * @param nodes
+	 *            the snapshot of the nodes
+	 */
+	public void setNodes(Node nodes[]);
+
+	/**
+	 * Select an available node for the specified request
+	 * 
+	 * @param request
+	 *            the request to balance
+	 * @param excluded
+	 *            the node which has just failed to serve the request and must
+	 *            not be selected again for it, or <tt>null</tt>
+	 * @return an available node (see {@link Node#isAvailable(long)}), or
+	 *         <tt>null</tt> if there is no available node
+	 */
+	public Node select(Request request, Node excluded);
+}
@@ -46,9 +46,10 @@ public interface NodeService extends LifeCycleService {
 	public Node getNode(Request request);
 
 	/**
-	 * Select a new node for the specified request and mark the failed node as
-	 * unreachable. This method behaves exactly in the same way if the
-	 * {@code failedNode} is <i>null</i>
+	 * Select a new node for the specified request, other than the failed node,
+	 * and report the failure to the circuit breaker of the failed node (see
+	 * {@link #failedNode(Node)}). This method behaves exactly in the same way
+	 * as {@link #getNode(Request)} if the {@code failedNode} is <i>null</i>
 	 * 
 	 * @param request
 	 * @param failedNode
@@ -59,13 +60,13 @@ public interface NodeService extends LifeCycleService {
 	public Node getNode(Request request, Node failedNode);
 
 	/**
-	 * @return the number of active nodes, i.e., the number of nodes having
-	 *         status to {@link Node.NodeStatus#NODE_UP}
+	 * @return the number of active nodes, i.e., the number of nodes which may
+	 *         be selected (see {@link Node#isAvailable(long)})
 	 */
 	public int getActiveNodes();
 
 	/**
-	 * Set the node status to <tt>DOWN</tt>
+	 * Report a failed request to the node to its circuit breaker
 	 * 
 	 * @param node
 	 */
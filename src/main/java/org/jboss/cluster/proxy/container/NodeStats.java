@@ -0,0 +1,135 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.io.Serializable;
+
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code NodeStats}
+ * <p>
+ * Statistics of the responses of a node over a {@link RollingWindow}: number
+ * of responses, server errors (status 5xx), connections reset in the middle of
+ * a response and time to first byte.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class NodeStats implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 4473616017917096553L;
+	// Counters of the window
+	private static final int RESPONSES = 0;
+	private static final int ERRORS = 1;
+	private static final int RESETS = 2;
+	private static final int LATENCIES = 3;
+	private final RollingWindow window;
+
+	/**
+	 * Create a new instance of {@code NodeStats} whose window is the outlier
+	 * detection interval
+	 */
+	public NodeStats() {
+		this(Long.getLong(Constants.OUTLIER_INTERVAL_NAME, Constants.DEFAULT_OUTLIER_INTERVAL));
+	}
+
+	/**
+	 * Create a new instance of {@code NodeStats}
+	 * 
+	 * @param window
+	 *            the duration of the rolling window in milliseconds
+	 */
+	public NodeStats(long window) {
+		this.window = new RollingWindow(window, 4);
+	}
+
+	/**
+	 * Record a response of the node
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @param status
+	 *            the status code of the response
+	 * @param micros
+	 *            the time to first byte of the response in microseconds
+	 */
+	public void onResponse(long now, int status, long micros) {
+		int i = this.window.bucket(now);
+		this.window.add(i, RESPONSES, 1);
+		this.window.add(i, LATENCIES, micros);
+		if (status >= 500) {
+			this.window.add(i, ERRORS, 1);
+		}
+	}
+
+	/**
+	 * Record a connection reset by the node in the middle of a response
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public void onReset(long now) {
+		this.window.increment(now, RESETS);
+	}
+
+	/**
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the number of responses over the window
+	 */
+	public int getResponses(long now) {
+		return (int) this.window.sum(now, RESPONSES);
+	}
+
+	/**
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the number of server errors over the window
+	 */
+	public int getErrors(long now) {
+		return (int) this.window.sum(now, ERRORS);
+	}
+
+	/**
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the number of resets over the window
+	 */
+	public int getResets(long now) {
+		return (int) this.window.sum(now, RESETS);
+	}
+
+	/**
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the mean time to first byte over the window in microseconds, or
+	 *         0 if there is no response
+	 */
+	public long getMeanLatency(long now) {
+		long count = this.window.sum(now, RESPONSES);
+		return count == 0 ? 0 : this.window.sum(now, LATENCIES) / count;
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.cluster.proxy.Constants;
+import org.jboss.logging.Logger;
+
+/**
+ * {@code OutlierDetector}
+ * <p>
+ * Passive detection of the failing nodes from the statistics of their live
+ * traffic (see {@link NodeStats}). Once per interval, a node is ejected when
+ * its ratio of server errors and resets is too high, or when its mean time to
+ * first byte is far above the median of the nodes. An ejected node does not
+ * receive requests until its ejection time, which grows with the number of
+ * consecutive ejections, is elapsed. The number of unavailable nodes, ejected,
+ * down or having their circuit breaker open, is capped relatively to the
+ * available nodes, so that the detector never empties the cluster.
+ * </p>
+ * <p>
+ * The detection runs on the thread of the request which finds the interval
+ * elapsed, so that no thread is dedicated to it.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class OutlierDetector {
+
+	private static final Logger logger = Logger.getLogger(OutlierDetector.class);
+	/**
+	 * Upper bound of the multiplier of the ejection time
+	 */
+	private static final int MAX_EJECTION_MULTIPLIER = 10;
+	private final AtomicLong next = new AtomicLong(0);
+	private final long interval;
+	private final int minRequests;
+	private final int errorRatio;
+	private final int latencyFactor;
+	private final long ejectionTime;
+	private final int maxEjection;
+
+	/**
+	 * Create a new instance of {@code OutlierDetector} configured by the
+	 * system properties
+	 */
+	public OutlierDetector() {
+		this.interval = Long.getLong(Constants.OUTLIER_INTERVAL_NAME,
+				Constants.DEFAULT_OUTLIER_INTERVAL);
+		this.minRequests = Math.max(Integer.getInteger(Constants.OUTLIER_MIN_REQUESTS_NAME,
+				Constants.DEFAULT_OUTLIER_MIN_REQUESTS), 1);
+		this.errorRatio = Integer.getInteger(Constants.OUTLIER_ERROR_RATIO_NAME,
+				Constants.DEFAULT_OUTLIER_ERROR_RATIO);
+		this.latencyFactor = Integer.getInteger(Constants.OUTLIER_LATENCY_FACTOR_NAME,
+				Constants.DEFAULT_OUTLIER_LATENCY_FACTOR);
+		this.ejectionTime = Long.getLong(Constants.OUTLIER_EJECTION_TIME_NAME,
+				Constants.DEFAULT_OUTLIER_EJECTION_TIME);
+		this.maxEjection = Math.max(Math.min(Integer.getInteger(
+				Constants.OUTLIER_MAX_EJECTION_NAME, Constants.DEFAULT_OUTLIER_MAX_EJECTION), 100), 0);
+	}
+
+	/**
+	 * Run the detection over the specified nodes if the interval is elapsed
+	 * since the last detection. Only one thread runs the detection at a time.
+	 * 
+	 * @param nodes
+	 *            the nodes
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public void detect(Node nodes[], long now) {
+		long t = this.next.get();
+		if (this.interval <= 0 || now < t || !this.next.compareAndSet(t, now + this.interval)) {
+			return;
+		}
+		if (nodes.length < 2) {
+			// Nothing to fail over to
+			return;
+		}
+
+		// The nodes which are down or have their breaker open count as
+		// ejected, the cap is relative to the nodes still available
+		int unavailable = 0;
+		for (Node node : nodes) {
+			if (!node.isAvailable(now)) {
+				unavailable++;
+			}
+		}
+		int available = nodes.length - unavailable;
+		int max = Math.max(available * this.maxEjection / 100, this.maxEjection > 0 ? 1 : 0);
+		int ejected = unavailable;
+		long median = medianLatency(nodes, now);
+
+		for (Node node : nodes) {
+			if (!node.isAvailable(now)) {
+				continue;
+			}
+			NodeStats stats = node.getStats();
+			int responses = stats.getResponses(now);
+			int resets = stats.getResets(now);
+			int failures = stats.getErrors(now) + resets;
+			int requests = responses + resets;
+			long latency = stats.getMeanLatency(now);
+			String reason = null;
+			if (requests >= this.minRequests
+					&& failures * 100L >= (long) requests * this.errorRatio) {
+				reason = failures + " failures over " + requests + " requests";
+			} else if (median > 0 && responses >= this.minRequests
+					&& latency > median * this.latencyFactor) {
+				reason = "mean time to first byte of " + latency + "us for a median of "
+						+ median + "us";
+			}
+
+			if (reason == null) {
+				// The node behaves, forget progressively its ejections
+				if (node.getEjections() > 0) {
+					node.setEjections(node.getEjections() - 1);
+				}
+			} else if (ejected < max) {
+				int ejections = Math.min(node.getEjections() + 1, MAX_EJECTION_MULTIPLIER);
+				node.setEjections(ejections);
+				node.eject(now + this.ejectionTime * ejections);
+				ejected++;
+				logger.info("Ejecting node <" + node.getHostname() + ":" + node.getPort()
+						+ "> for " + (this.ejectionTime * ejections) + "ms: " + reason);
+			}
+		}
+	}
+
+	/**
+	 * @param nodes
+	 * @param now
+	 * @return the median of the mean time to first byte of the nodes having
+	 *         enough responses, or 0 if there are less than 3 such nodes
+	 */
+	private long medianLatency(Node nodes[], long now) {
+		long latencies[] = new long[nodes.length];
+		int n = 0;
+		for (Node node : nodes) {
+			if (!node.isEjected(now) && node.getStats().getResponses(now) >= this.minRequests) {
+				latencies[n++] = node.getStats().getMeanLatency(now);
+			}
+		}
+		if (n < 3) {
+			return 0;
+		}
+		Arrays.sort(latencies, 0, n);
+		return latencies[n / 2];
+	}
+}
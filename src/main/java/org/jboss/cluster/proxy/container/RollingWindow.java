@@ -0,0 +1,144 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@code RollingWindow}
+ * <p>
+ * Lock-free counters over a sliding period of time. The window is split in
+ * buckets which are recycled lazily by the first update falling in a new
+ * bucket, so that nothing has to run periodically. The sums are approximate
+ * when a bucket is recycled concurrently with an update.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class RollingWindow implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -6043151232574834611L;
+	/**
+	 * Number of buckets of the window
+	 */
+	private static final int BUCKETS = 10;
+	private final long bucketTime;
+	private final int counters;
+	private final AtomicLongArray epochs = new AtomicLongArray(BUCKETS);
+	/**
+	 * The counters of a bucket are contiguous
+	 */
+	private final AtomicLongArray counts;
+
+	/**
+	 * Create a new instance of {@code RollingWindow}
+	 * 
+	 * @param window
+	 *            the duration of the window in milliseconds
+	 * @param counters
+	 *            the number of counters
+	 */
+	public RollingWindow(long window, int counters) {
+		this.bucketTime = Math.max(window / BUCKETS, 1);
+		this.counters = counters;
+		this.counts = new AtomicLongArray(BUCKETS * counters);
+		clear();
+	}
+
+	/**
+	 * Get the bucket of the current time, recycling it if it belongs to an
+	 * elapsed period
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the bucket to pass to {@link #add(int, int, long)}
+	 */
+	public int bucket(long now) {
+		long epoch = now / this.bucketTime;
+		int i = (int) (epoch % BUCKETS);
+		long e = this.epochs.get(i);
+		if (e != epoch && this.epochs.compareAndSet(i, e, epoch)) {
+			for (int j = i * this.counters, end = j + this.counters; j < end; j++) {
+				this.counts.set(j, 0);
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Add a value to a counter of the bucket
+	 * 
+	 * @param bucket
+	 *            the bucket returned by {@link #bucket(long)}
+	 * @param counter
+	 *            the index of the counter
+	 * @param delta
+	 *            the value to add
+	 */
+	public void add(int bucket, int counter, long delta) {
+		this.counts.addAndGet(bucket * this.counters + counter, delta);
+	}
+
+	/**
+	 * Increment a counter in the bucket of the current time
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @param counter
+	 *            the index of the counter
+	 */
+	public void increment(long now, int counter) {
+		add(bucket(now), counter, 1);
+	}
+
+	/**
+	 * @param now
+	 *            the current time in milliseconds
+	 * @param counter
+	 *            the index of the counter
+	 * @return the sum of the counter over the window
+	 */
+	public long sum(long now, int counter) {
+		long epoch = now / this.bucketTime;
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			long e = this.epochs.get(i);
+			if (e != Long.MIN_VALUE && epoch - e < BUCKETS) {
+				total += this.counts.get(i * this.counters + counter);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Forget all the values of the window
+	 */
+	public void clear() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.epochs.set(i, Long.MIN_VALUE);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.Map;
+
+/**
+ * {@code RouteIndex}
+ * <p>
+ * Immutable hash table keyed by ASCII strings, which can be queried directly
+ * with a range of bytes (e.g. a part of a raw header value) without creating
+ * any {@code String}. It is used to resolve the sticky session cookies and
+ * routes in constant time. The index is rebuilt and replaced as a whole when
+ * the configuration changes.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public final class RouteIndex<V> {
+
+	private final byte keys[][];
+	private final Object values[];
+	private final int mask;
+	private final int size;
+
+	/**
+	 * Create a new instance of {@code RouteIndex}
+	 * 
+	 * @param entries
+	 *            the entries of the index, the keys must be ASCII strings
+	 */
+	public RouteIndex(Map<String, V> entries) {
+		int capacity = 4;
+		while (capacity < entries.size() * 2) {
+			capacity <<= 1;
+		}
+		this.keys = new byte[capacity][];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		this.size = entries.size();
+
+		for (Map.Entry<String, V> e : entries.entrySet()) {
+			String key = e.getKey();
+			byte b[] = new byte[key.length()];
+			for (int i = 0; i < b.length; i++) {
+				b[i] = (byte) key.charAt(i);
+			}
+			int index = hash(b, 0, b.length) & this.mask;
+			while (this.keys[index] != null) {
+				index = (index + 1) & this.mask;
+			}
+			this.keys[index] = b;
+			this.values[index] = e.getValue();
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return the value mapped to the key, or <tt>null</tt> if there is no
+	 *         mapping for the key
+	 */
+	public V get(String key) {
+		if (key == null) {
+			return null;
+		}
+		int len = key.length();
+		int h = 0;
+		for (int i = 0; i < len; i++) {
+			h = 31 * h + (((byte) key.charAt(i)) & 0xff);
+		}
+		int index = (h ^ (h >>> 16)) & this.mask;
+		byte k[];
+		while ((k = this.keys[index]) != null) {
+			if (k.length == len && equals(k, key)) {
+				return value(index);
+			}
+			index = (index + 1) & this.mask;
+		}
+		return null;
+	}
+
+	/**
+	 * @param b
+	 *            the bytes
+	 * @param off
+	 *            the offset of the key in the bytes
+	 * @param len
+	 *            the length of the key
+	 * @return the value mapped to the key, or <tt>null</tt> if there is no
+	 *         mapping for the key
+	 */
+	public V get(byte b[], int off, int len) {
+		int index = hash(b, off, len) & this.mask;
+		byte k[];
+		while ((k = this.keys[index]) != null) {
+			if (k.length == len && equals(k, b, off)) {
+				return value(index);
+			}
+			index = (index + 1) & this.mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Same as {@link #get(byte[], int, int)}, ignoring the case of the ASCII
+	 * letters of the bytes. The keys of the index must be in lower case.
+	 * 
+	 * @param b
+	 *            the bytes
+	 * @param off
+	 *            the offset of the key in the bytes
+	 * @param len
+	 *            the length of the key
+	 * @return the value mapped to the lower case key, or <tt>null</tt> if
+	 *         there is no mapping for the key
+	 */
+	public V getIgnoreCase(byte b[], int off, int len) {
+		int h = 0;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = 31 * h + (toLower(b[i]) & 0xff);
+		}
+		int index = (h ^ (h >>> 16)) & this.mask;
+		byte k[];
+		while ((k = this.keys[index]) != null) {
+			if (k.length == len && equalsIgnoreCase(k, b, off)) {
+				return value(index);
+			}
+			index = (index + 1) & this.mask;
+		}
+		return null;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the index has no entry
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(int index) {
+		return (V) this.values[index];
+	}
+
+	private static int hash(byte b[], int off, int len) {
+		int h = 0;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = 31 * h + (b[i] & 0xff);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equals(byte k[], byte b[], int off) {
+		for (int i = 0; i < k.length; i++) {
+			if (k[i] != b[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equalsIgnoreCase(byte k[], byte b[], int off) {
+		for (int i = 0; i < k.length; i++) {
+			if (k[i] != toLower(b[off + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte toLower(byte c) {
+		return (c >= 'A' && c <= 'Z') ? (byte) (c + ('a' - 'A')) : c;
+	}
+
+	private static boolean equals(byte k[], String key) {
+		for (int i = 0; i < k.length; i++) {
+			if (k[i] != (byte) key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
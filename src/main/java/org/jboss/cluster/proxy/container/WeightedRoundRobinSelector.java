@@ -0,0 +1,146 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code WeightedRoundRobinSelector}
+ * <p>
+ * Lock-free weighted round robin selection of the nodes. The selection
+ * sequence is computed once per snapshot of the nodes, by spreading each node
+ * proportionally to its weight (smooth weighted round robin), so that a node
+ * of weight <tt>w</tt> appears <tt>w</tt> times in the sequence without being
+ * chosen in bursts. Selecting a node only increments a shared cursor and walks
+ * the sequence to skip the unavailable nodes. A node in slow start is
+ * only accepted with a probability equal to its share of its weight.
+ * </p>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class WeightedRoundRobinSelector implements NodeSelector {
+
+	/**
+	 * Upper bound of the node weights, to bound the length of the sequence
+	 */
+	public static final int MAX_WEIGHT = 100;
+	private volatile Node sequence[] = new Node[0];
+	private final AtomicInteger cursor = new AtomicInteger(0);
+	private final long slowStart = Long.getLong(Constants.SLOW_START_NAME,
+			Constants.DEFAULT_SLOW_START);
+
+	/**
+	 * Create a new instance of {@code WeightedRoundRobinSelector}
+	 */
+	public WeightedRoundRobinSelector() {
+		super();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.container.NodeSelector#setNodes(org.jboss.cluster
+	 * .proxy.container.Node[])
+	 */
+	@Override
+	public void setNodes(Node nodes[]) {
+		int weights[] = new int[nodes.length];
+		int gcd = 0;
+		int total = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			weights[i] = Math.min(Math.max(nodes[i].getWeight(), 1), MAX_WEIGHT);
+			gcd = gcd(gcd, weights[i]);
+		}
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] /= gcd;
+			total += weights[i];
+		}
+
+		Node seq[] = new Node[total];
+		int current[] = new int[nodes.length];
+		for (int n = 0; n < total; n++) {
+			int best = 0;
+			for (int i = 0; i < nodes.length; i++) {
+				current[i] += weights[i];
+				if (current[i] > current[best]) {
+					best = i;
+				}
+			}
+			current[best] -= total;
+			seq[n] = nodes[best];
+		}
+		this.sequence = seq;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.container.NodeSelector#select(org.apache.coyote
+	 * .Request, org.jboss.cluster.proxy.container.Node)
+	 */
+	@Override
+	public Node select(Request request, Node excluded) {
+		Node seq[] = this.sequence;
+		int length = seq.length;
+		if (length == 0) {
+			return null;
+		}
+		int start = (this.cursor.getAndIncrement() & Integer.MAX_VALUE) % length;
+		long now = System.currentTimeMillis();
+		Node fallback = null;
+		for (int i = 0; i < length; i++) {
+			int index = start + i;
+			Node node = seq[index < length ? index : index - length];
+			if (node != excluded && node.isAvailable(now)) {
+				double factor = node.getSlowStartFactor(now, this.slowStart);
+				if (factor >= 1.0 || ThreadLocalRandom.current().nextDouble() < factor) {
+					return node;
+				}
+				if (fallback == null) {
+					fallback = node;
+				}
+			}
+		}
+
+		return fallback;
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return the greatest common divisor of <tt>a</tt> and <tt>b</tt>
+	 */
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
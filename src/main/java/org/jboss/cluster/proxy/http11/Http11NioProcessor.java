@@ -606,6 +606,21 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 		request.setRemotePort(remotePort);
 	}
 
+	/**
+	 * Get the raw bytes of the remote address, computed once per connection
+	 */
+	private void requestRemoteAddressAttr() {
+		if (remoteAddress == null && (channel != null)) {
+			try {
+				remoteAddress = ((InetSocketAddress) this.channel
+						.getRemoteAddress()).getAddress().getAddress();
+			} catch (Exception e) {
+				log.warn(sm.getString("http11processor.socket.info"), e);
+			}
+		}
+		request.setRemoteAddress(remoteAddress);
+	}
+
 	/**
 	 * Get local port
 	 */
@@ -806,6 +821,9 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 		} else if (actionCode == ActionCode.ACTION_REQ_REMOTEPORT_ATTRIBUTE) {
 			// Get remote port
 			requestRemotePortAttr();
+		} else if (actionCode == ActionCode.ACTION_REQ_REMOTEADDRESS_ATTRIBUTE) {
+			// Get the raw remote address
+			requestRemoteAddressAttr();
 		} else if (actionCode == ActionCode.ACTION_REQ_LOCALPORT_ATTRIBUTE) {
 			// Get local port
 			requestLocalPortAttr();
@@ -38,6 +38,11 @@ public class XmlNode implements Serializable {
 
 	private String hostname;
 	private int port;
+	private Integer smax;
+	private Integer ttl;
+	private Integer maxConnections;
+	private Integer weight;
+	private Integer ping;
 
 	/**
 	 * 
@@ -91,6 +96,107 @@ public class XmlNode implements Serializable {
 		this.port = port;
 	}
 
+	/**
+	 * Getter for smax
+	 * 
+	 * @return the smax, or <tt>null</tt> if not specified
+	 */
+	@XmlElement
+	public Integer getSmax() {
+		return this.smax;
+	}
+
+	/**
+	 * Setter for the smax
+	 * 
+	 * @param smax
+	 *            the smax to set
+	 */
+	public void setSmax(Integer smax) {
+		this.smax = smax;
+	}
+
+	/**
+	 * Getter for ttl (in milliseconds)
+	 * 
+	 * @return the ttl, or <tt>null</tt> if not specified
+	 */
+	@XmlElement
+	public Integer getTtl() {
+		return this.ttl;
+	}
+
+	/**
+	 * Setter for the ttl
+	 * 
+	 * @param ttl
+	 *            the ttl to set
+	 */
+	public void setTtl(Integer ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Getter for maxConnections
+	 * 
+	 * @return the maxConnections, or <tt>null</tt> if not specified
+	 */
+	@XmlElement(name = "max-connections")
+	public Integer getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	/**
+	 * Setter for the maxConnections
+	 * 
+	 * @param maxConnections
+	 *            the maxConnections to set
+	 */
+	public void setMaxConnections(Integer maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Getter for weight
+	 * 
+	 * @return the weight, or <tt>null</tt> if not specified
+	 */
+	@XmlElement
+	public Integer getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * Setter for the weight
+	 * 
+	 * @param weight
+	 *            the weight to set
+	 */
+	public void setWeight(Integer weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * Getter for ping (in milliseconds)
+	 * 
+	 * @return the interval between the health checks of the node, or
+	 *         <tt>null</tt> if not specified
+	 */
+	@XmlElement
+	public Integer getPing() {
+		return this.ping;
+	}
+
+	/**
+	 * Setter for the ping
+	 * 
+	 * @param ping
+	 *            the ping to set
+	 */
+	public void setPing(Integer ping) {
+		this.ping = ping;
+	}
+
 	@Override
 	public String toString() {
 		return this.hostname + ":" + this.port;
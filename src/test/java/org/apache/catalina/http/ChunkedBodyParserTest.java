@@ -0,0 +1,123 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.catalina.http;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * {@code ChunkedBodyParserTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class ChunkedBodyParserTest extends TestCase {
+
+	private static final int STEPS[] = { 1, 2, 5, 1000 };
+
+	/**
+	 * Feed a new parser with the body, <tt>step</tt> bytes at a time
+	 * 
+	 * @param body
+	 * @param step
+	 * @return the parser
+	 */
+	private static ChunkedBodyParser parse(String body, int step) {
+		byte b[] = body.getBytes();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(b.length);
+		buffer.put(b).flip();
+		ChunkedBodyParser parser = new ChunkedBodyParser();
+		for (int pos = 0; pos < b.length; pos += step) {
+			buffer.limit(Math.min(b.length, pos + step));
+			if (parser.parse(buffer, pos)) {
+				break;
+			}
+		}
+		return parser;
+	}
+
+	/**
+	 * Chunks with extensions, data containing CRLF and trailers
+	 */
+	public void testDone() {
+		String bodies[] = { "5\r\nhello\r\n1A;ext=1\r\nabcdefghijklmnopqrstuvwxyz\r\n0\r\n\r\n",
+				"4\r\n\r\n\r\n\r\n0\r\n\r\n", "3\r\nabc\r\n0\r\nX-Trailer: y\r\n\r\n" };
+		for (String body : bodies) {
+			for (int step : STEPS) {
+				ChunkedBodyParser parser = parse(body, step);
+				assertTrue(body + " / " + step, parser.isDone());
+				assertFalse(parser.isError());
+				assertEquals(body.length(), parser.getEnd());
+			}
+		}
+	}
+
+	/**
+	 * The end offset is the first byte following the body
+	 */
+	public void testPipelined() {
+		String body = "5\r\nhello\r\n0\r\n\r\n";
+		for (int step : STEPS) {
+			ChunkedBodyParser parser = parse(body + "GET / HTTP/1.1\r\n\r\n", step);
+			assertTrue(parser.isDone());
+			assertEquals(body.length(), parser.getEnd());
+		}
+	}
+
+	/**
+	 * An incomplete body is neither done nor in error
+	 */
+	public void testIncomplete() {
+		for (int step : STEPS) {
+			ChunkedBodyParser parser = parse("3\r\nabc\r\n", step);
+			assertFalse(parser.isDone());
+			assertFalse(parser.isError());
+		}
+	}
+
+	/**
+	 * Invalid sizes and data longer than the size are errors
+	 */
+	public void testError() {
+		for (String body : new String[] { "3\r\nabcd\r\n0\r\n\r\n", "x\r\n", "\r\n" }) {
+			for (int step : STEPS) {
+				ChunkedBodyParser parser = parse(body, step);
+				assertTrue(body + " / " + step, parser.isError());
+				assertFalse(parser.isDone());
+			}
+		}
+	}
+
+	/**
+	 * A recycled parser starts a new body
+	 */
+	public void testRecycle() {
+		ChunkedBodyParser parser = parse("x\r\n", 1000);
+		assertTrue(parser.isError());
+		parser.recycle();
+		assertFalse(parser.isError());
+		assertEquals(-1, parser.getEnd());
+		ByteBuffer buffer = ByteBuffer.wrap("0\r\n\r\n".getBytes());
+		assertTrue(parser.parse(buffer, 0));
+		assertTrue(parser.isDone());
+	}
+}
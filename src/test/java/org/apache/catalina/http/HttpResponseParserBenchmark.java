@@ -0,0 +1,289 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.catalina.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code HttpResponseParserBenchmark}
+ * <p>
+ * Cost of the parsing of a typical node response head by the incremental
+ * parser, from a heap array and from a direct buffer, compared with the
+ * parser it replaced, e.g.:
+ * </p>
+ * 
+ * <pre>
+ * mvn test-compile
+ * java -cp "target/classes:target/test-classes:target/lib/*" org.openjdk.jmh.Main HttpResponseParserBenchmark -prof gc
+ * </pre>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpResponseParserBenchmark {
+
+	private static final String HEAD = "HTTP/1.1 200 OK\r\n"
+			+ "Server: Apache-Coyote/1.1\r\n"
+			+ "Set-Cookie: JSESSIONID=F3A1C2B4D5E6A7B8C9D0.node2; Path=/shop\r\n"
+			+ "Cache-Control: no-cache\r\n" + "Content-Type: text/html;charset=UTF-8\r\n"
+			+ "Content-Length: 5120\r\n" + "Date: Mon, 02 Jul 2012 10:12:34 GMT\r\n"
+			+ "Keep-Alive: timeout=15, max=100\r\n" + "Connection: Keep-Alive\r\n" + "\r\n";
+
+	private byte head[];
+	private ByteBuffer direct;
+	private Response response;
+	private HttpResponseParser parser;
+	private LegacyResponseParser legacy;
+
+	/**
+	 * Create the response and the parsers
+	 */
+	@Setup
+	public void setup() {
+		this.head = HEAD.getBytes();
+		this.direct = ByteBuffer.allocateDirect(this.head.length);
+		this.direct.put(this.head).flip();
+		this.response = new Response();
+		this.parser = new HttpResponseParser();
+		this.legacy = new LegacyResponseParser();
+	}
+
+	/**
+	 * @return the status of the response
+	 */
+	@Benchmark
+	public int parseArray() {
+		this.response.recycle();
+		this.parser.recycle();
+		this.parser.parse(this.response, this.head, 0, this.head.length);
+		return this.response.getStatus();
+	}
+
+	/**
+	 * @return the status of the response
+	 */
+	@Benchmark
+	public int parseDirect() {
+		this.response.recycle();
+		this.parser.recycle();
+		this.parser.parse(this.response, this.direct);
+		return this.response.getStatus();
+	}
+
+	/**
+	 * @return the status of the response
+	 */
+	@Benchmark
+	public int legacyParse() {
+		this.response.recycle();
+		this.legacy.recycle();
+		this.legacy.parse(this.response, this.head, this.head.length);
+		return this.response.getStatus();
+	}
+
+	/**
+	 * {@code LegacyResponseParser}
+	 * <p>
+	 * The header parsing of {@code HttpResponseParser} before the incremental
+	 * parser: one {@link DataBuffer} walk, the names and values copied through
+	 * {@link StringBuilder}s and added as strings to the response.
+	 * </p>
+	 */
+	private static class LegacyResponseParser {
+
+		private static final int INT_BASE = (int) '0';
+		private boolean parsingHeader = true;
+		private boolean responseLine = false;
+		private DataBuffer dataBuffer = new DataBuffer();
+		private long headerLength = 0;
+		private StringBuilder headerNameBuffer = new StringBuilder();
+		private StringBuilder headerValueBuffer = new StringBuilder();
+
+		/**
+		 * @param response
+		 * @param buf
+		 * @param length
+		 */
+		void parse(Response response, byte buf[], int length) {
+			if (!this.parsingHeader) {
+				return;
+			}
+			this.dataBuffer.setBytes(buf, 0, length);
+			if (!this.responseLine) {
+				parseResponseLine(response, this.dataBuffer);
+				while (this.dataBuffer.getByte() == Constants.CR
+						|| this.dataBuffer.getByte() == Constants.LF) {
+					this.dataBuffer.update();
+				}
+				this.responseLine = true;
+			}
+			while (parseHeader(response, this.dataBuffer)) {
+				// NOPE
+			}
+			this.parsingHeader = false;
+			this.headerLength = this.dataBuffer.position();
+		}
+
+		/**
+		 * @param response
+		 * @param respBuff
+		 */
+		private void parseResponseLine(Response response, DataBuffer respBuff) {
+			byte b = 0;
+			while ((b = respBuff.getByte()) == Constants.CR || b == Constants.LF) {
+				respBuff.update();
+			}
+			boolean space = false;
+			while (!space) {
+				b = respBuff.getAndUpdate();
+				if (b == Constants.SP || b == Constants.HT) {
+					space = true;
+				}
+			}
+			while (space) {
+				b = respBuff.getByte();
+				if (b == Constants.SP || b == Constants.HT) {
+					respBuff.update();
+				} else {
+					space = false;
+				}
+			}
+			int start = respBuff.position();
+			while (!space) {
+				b = respBuff.getByte();
+				if (b == Constants.SP || b == Constants.HT) {
+					space = true;
+					response.setStatus(bytesToInt(respBuff.buf, start, respBuff.position() - start));
+				}
+				respBuff.update();
+			}
+			StringBuilder sb = new StringBuilder();
+			while ((b = respBuff.getByte()) != Constants.CR && b != Constants.LF) {
+				sb.append((char) respBuff.getAndUpdate());
+			}
+			response.setMessage(sb.toString());
+			this.headerLength += respBuff.position();
+		}
+
+		/**
+		 * @param response
+		 * @param respBuff
+		 * @return false after reading the blank line ending the head
+		 */
+		private boolean parseHeader(Response response, DataBuffer respBuff) {
+			byte b = 0;
+			while (true) {
+				b = respBuff.getByte();
+				if ((b == Constants.CR) || (b == Constants.LF)) {
+					if (b == Constants.LF) {
+						respBuff.update();
+						return false;
+					}
+				} else {
+					break;
+				}
+				respBuff.update();
+			}
+			headerNameBuffer.delete(0, headerNameBuffer.length());
+			headerValueBuffer.delete(0, headerValueBuffer.length());
+			boolean colon = false;
+			String headerName = null;
+			while (!colon) {
+				b = respBuff.getByte();
+				if (b == Constants.COLON) {
+					colon = true;
+					headerName = headerNameBuffer.toString();
+				}
+				if ((b >= Constants.A) && (b <= Constants.Z)) {
+					respBuff.setByte((byte) (b - Constants.LC_OFFSET));
+				}
+				if (!colon) {
+					headerNameBuffer.append((char) respBuff.getByte());
+				}
+				respBuff.update();
+			}
+			boolean space = true;
+			while (space) {
+				b = respBuff.getByte();
+				if (b == Constants.SP || b == Constants.HT) {
+					respBuff.update();
+				} else {
+					space = false;
+				}
+			}
+			while (b != Constants.CR && b != Constants.LF) {
+				b = respBuff.getByte();
+				headerValueBuffer.append((char) b);
+				respBuff.update();
+			}
+			while ((b = respBuff.getAndUpdate()) != Constants.LF) {
+				respBuff.update();
+			}
+			response.addHeader(headerName, headerValueBuffer.toString().trim());
+			return true;
+		}
+
+		/**
+		 * @param bytes
+		 * @param off
+		 * @param length
+		 * @return the integer value of the digits
+		 */
+		private static int bytesToInt(byte[] bytes, int off, int length) {
+			int value = 0;
+			int len = off + length;
+			for (int i = off; i < len; i++) {
+				value += (int) Math.pow(10, len - i - 1) * (bytes[i] - INT_BASE);
+			}
+			return value;
+		}
+
+		/**
+		 * Reset the parser for the next response
+		 */
+		void recycle() {
+			this.parsingHeader = true;
+			this.responseLine = false;
+			this.headerLength = 0;
+			this.dataBuffer.clear();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.catalina.http;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.apache.coyote.Response;
+
+/**
+ * {@code HttpResponseParserTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class HttpResponseParserTest extends TestCase {
+
+	private static final String KEEP_ALIVE = "HTTP/1.1 200 OK\r\n" + "Server: node\r\n"
+			+ "Content-Length: 1234\r\n" + "Keep-Alive: timeout=5, max=100\r\n"
+			+ "CONNECTION: Keep-Alive\r\n" + "\r\n";
+
+	private static final String CHUNKED = "HTTP/1.1 404 Not Found\r\n"
+			+ "Transfer-Encoding: gzip, Chunked\r\n" + "Connection: close\r\n"
+			+ "Content-Length: 7\r\n" + "\r\n";
+
+	private static final String FOLDED = "\r\nHTTP/1.0 304\n"
+			+ "X-Long-Header-Name-Beyond-Twenty: v\n" + "content-length:\n 42\n"
+			+ "Keep-Alive: max=0\n" + "\n";
+
+	private Response response;
+	private HttpResponseParser parser;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		this.response = new Response();
+		this.parser = new HttpResponseParser();
+		this.response.setResponseParser(this.parser);
+	}
+
+	/**
+	 * Feed the parser with the head followed by a body, <tt>step</tt> bytes at
+	 * a time, from a direct buffer
+	 * 
+	 * @param head
+	 * @param step
+	 * @return <tt>true</tt> if the parser completed the head
+	 */
+	private boolean parse(String head, int step) {
+		byte b[] = (head + "BODY").getBytes();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(b.length);
+		buffer.put(b).flip();
+		for (int pos = 0; pos < b.length; pos += step) {
+			buffer.limit(Math.min(b.length, pos + step)).position(pos);
+			boolean done = this.parser.parse(this.response, buffer);
+			assertEquals("the position must be left unchanged", pos, buffer.position());
+			if (done) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Content length, keep-alive parameters and case insensitive names
+	 */
+	public void testKeepAlive() {
+		for (int step : new int[] { 1, 3, 7, 1000 }) {
+			setUpQuietly();
+			assertTrue(parse(KEEP_ALIVE, step));
+			assertEquals(200, this.response.getStatus());
+			assertEquals(1234, this.response.getContentLengthLong());
+			assertFalse(this.response.isChunked());
+			assertFalse(this.parser.isConnectionClose());
+			assertEquals(5, this.parser.getKeepAliveTimeout());
+			assertEquals(100, this.parser.getKeepAliveMax());
+			assertEquals(KEEP_ALIVE.length(), this.parser.getHeaderLength());
+			assertFalse(this.parser.parsingHeader());
+		}
+	}
+
+	/**
+	 * The chunked coding wins over the content length, and only when it is the
+	 * last coding
+	 */
+	public void testChunked() {
+		for (int step : new int[] { 1, 3, 7, 1000 }) {
+			setUpQuietly();
+			assertTrue(parse(CHUNKED, step));
+			assertEquals(404, this.response.getStatus());
+			assertTrue(this.response.isChunked());
+			assertTrue(this.parser.isConnectionClose());
+			assertEquals(-1, this.parser.getKeepAliveTimeout());
+			assertEquals(CHUNKED.length(), this.parser.getHeaderLength());
+		}
+
+		setUpQuietly();
+		assertTrue(parse("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked, gzip\r\n\r\n", 1000));
+		assertFalse(this.response.isChunked());
+	}
+
+	/**
+	 * Leading blank line, bare LF line ends, folded values and long names
+	 */
+	public void testTolerance() {
+		for (int step : new int[] { 1, 3, 7, 1000 }) {
+			setUpQuietly();
+			assertTrue(parse(FOLDED, step));
+			assertEquals(304, this.response.getStatus());
+			assertEquals(42, this.response.getContentLengthLong());
+			assertEquals(0, this.parser.getKeepAliveMax());
+			assertEquals(FOLDED.length(), this.parser.getHeaderLength());
+		}
+	}
+
+	/**
+	 * The parser resumes on the following reads until the head is complete
+	 */
+	public void testIncomplete() {
+		byte b[] = KEEP_ALIVE.getBytes();
+		int half = b.length / 2;
+		assertFalse(this.parser.parse(this.response, b, 0, half));
+		assertTrue(this.parser.parsingHeader());
+		assertTrue(this.parser.parse(this.response, b, half, b.length - half));
+		assertEquals(1234, this.response.getContentLengthLong());
+		assertEquals(b.length, this.parser.getHeaderLength());
+	}
+
+	/**
+	 * A recycled parser starts a new response
+	 */
+	public void testRecycle() {
+		assertTrue(parse(CHUNKED, 1000));
+		this.parser.recycle();
+		this.response.setContentLength(-1);
+		this.response.setTransferEncoding(null);
+		assertTrue(this.parser.parsingHeader());
+		assertTrue(parse(KEEP_ALIVE, 1000));
+		assertFalse(this.response.isChunked());
+		assertFalse(this.parser.isConnectionClose());
+		assertEquals(KEEP_ALIVE.length(), this.parser.getHeaderLength());
+	}
+
+	/**
+	 * Heap buffers are parsed through their array
+	 */
+	public void testHeapBuffer() {
+		byte b[] = ("xx" + KEEP_ALIVE).getBytes();
+		ByteBuffer buffer = ByteBuffer.wrap(b, 2, b.length - 2);
+		assertTrue(this.parser.parse(this.response, buffer));
+		assertEquals(2, buffer.position());
+		assertEquals(200, this.response.getStatus());
+		assertEquals(KEEP_ALIVE.length(), this.parser.getHeaderLength());
+	}
+
+	private void setUpQuietly() {
+		try {
+			setUp();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
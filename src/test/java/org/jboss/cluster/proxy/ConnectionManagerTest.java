@@ -0,0 +1,160 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.tomcat.util.net.NioChannel;
+import org.jboss.cluster.proxy.container.Node;
+
+/**
+ * {@code ConnectionManagerTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class ConnectionManagerTest extends TestCase {
+
+	/**
+	 * Outcome of a request which got no connection
+	 */
+	private static final Object NO_CHANNEL = new Object();
+	private static final int WAIT = 200;
+
+	/**
+	 * The channel factory keeps the channel group of the first manager, so
+	 * a single manager is initialized for all the tests
+	 */
+	private static ConnectionManager manager;
+	private Node node;
+	private ConnectionPool pool;
+	private NioChannel channel;
+	private final BlockingQueue<Object> results = new ArrayBlockingQueue<>(8);
+	private final CompletionHandler<NioChannel, Object> handler = new CompletionHandler<NioChannel, Object>() {
+
+		@Override
+		public void completed(NioChannel ch, Object attachment) {
+			results.offer(ch == null ? NO_CHANNEL : ch);
+		}
+
+		@Override
+		public void failed(Throwable exc, Object attachment) {
+			results.offer(exc);
+		}
+	};
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		synchronized (ConnectionManagerTest.class) {
+			if (manager == null) {
+				System.setProperty(Constants.MAX_NODE_CONNECTIONS_NAME, "1");
+				manager = new ConnectionManager();
+				manager.init();
+				System.clearProperty(Constants.MAX_NODE_CONNECTIONS_NAME);
+			}
+		}
+		this.node = new Node();
+		this.node.setJvmRoute(getName());
+		this.node.setWaitWorker(WAIT);
+		// The single connection of the node is busy
+		this.pool = manager.getPool(this.node);
+		assertTrue(this.pool.reserve());
+		this.channel = NioChannel.open();
+		this.pool.register(this.channel);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		this.pool.destroy();
+	}
+
+	/**
+	 * The recycled connection is handed over to the waiting request instead
+	 * of going back to the idle connections
+	 */
+	public void testHandOff() throws Exception {
+		manager.getChannel(this.node, null, this.handler);
+		assertTrue(this.results.isEmpty());
+		assertTrue(this.pool.hasWaiters());
+
+		manager.recycle(this.node, this.channel);
+		assertSame(this.channel, this.results.poll());
+		assertFalse(this.pool.hasWaiters());
+		assertEquals(0, this.pool.getIdle());
+		assertEquals(1, this.pool.getSize());
+
+		// The waiter is resumed once, its timeout does nothing
+		assertNull(this.results.poll(2 * WAIT, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * The waiting request gets no connection after the wait time, and the
+	 * connection recycled later goes back to the idle connections
+	 */
+	public void testExpire() throws Exception {
+		manager.getChannel(this.node, null, this.handler);
+		assertSame(NO_CHANNEL, this.results.poll(10 * WAIT, TimeUnit.MILLISECONDS));
+		assertFalse(this.pool.hasWaiters());
+
+		manager.recycle(this.node, this.channel);
+		assertTrue(this.results.isEmpty());
+		assertEquals(1, this.pool.getIdle());
+	}
+
+	/**
+	 * The queue of the waiting requests is bounded by the max number of
+	 * connections of the node
+	 */
+	public void testQueueFull() throws Exception {
+		manager.getChannel(this.node, null, this.handler);
+		manager.getChannel(this.node, null, this.handler);
+		assertSame(NO_CHANNEL, this.results.poll());
+		assertTrue(this.results.isEmpty());
+
+		manager.recycle(this.node, this.channel);
+		assertSame(this.channel, this.results.poll());
+	}
+
+	/**
+	 * A request does not wait when the wait is disabled
+	 */
+	public void testNoWait() throws Exception {
+		this.node.setWaitWorker(0);
+		manager.getChannel(this.node, null, this.handler);
+		assertSame(NO_CHANNEL, this.results.poll());
+		assertFalse(this.pool.hasWaiters());
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tomcat.util.net.NioChannel;
+import org.jboss.cluster.proxy.container.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@code ConnectionPoolBenchmark}
+ * <p>
+ * Throughput of the acquisition and the recycling of an idle connection, with
+ * the striped pool and with the single queue per node used before. The
+ * contention grows with the number of threads, e.g.:
+ * </p>
+ * 
+ * <pre>
+ * mvn test-compile
+ * java -cp "target/classes:target/test-classes:target/lib/*" org.openjdk.jmh.Main ConnectionPoolBenchmark -t 1
+ * java -cp "target/classes:target/test-classes:target/lib/*" org.openjdk.jmh.Main ConnectionPoolBenchmark -t 16
+ * </pre>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ConnectionPoolBenchmark {
+
+	/**
+	 * The number of idle connections of the node
+	 */
+	@Param({ "64" })
+	public int connections;
+
+	private ConnectionPool pool;
+	private ConcurrentLinkedQueue<NioChannel> queue;
+	private NioChannel channels[];
+
+	/**
+	 * Open the (unconnected) channels and put them in the pools
+	 * 
+	 * @throws Exception
+	 */
+	@Setup
+	public void setup() throws Exception {
+		this.pool = new ConnectionPool(new ConnectionManager(), new Node());
+		this.queue = new ConcurrentLinkedQueue<NioChannel>();
+		this.channels = new NioChannel[this.connections];
+		for (int i = 0; i < this.channels.length; i++) {
+			this.channels[i] = NioChannel.open();
+			this.pool.register(this.channels[i]);
+			this.pool.offer(this.channels[i]);
+			this.queue.offer(this.channels[i]);
+		}
+	}
+
+	/**
+	 * Close the channels
+	 * 
+	 * @throws Exception
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		for (NioChannel channel : this.channels) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param bh
+	 */
+	@Benchmark
+	public void striped(Blackhole bh) {
+		NioChannel channel = this.pool.poll();
+		if (channel != null) {
+			bh.consume(channel);
+			this.pool.offer(channel);
+		}
+	}
+
+	/**
+	 * @param bh
+	 */
+	@Benchmark
+	public void singleQueue(Blackhole bh) {
+		NioChannel channel = this.queue.poll();
+		if (channel != null) {
+			bh.consume(channel);
+			this.queue.offer(channel);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+import org.jboss.cluster.proxy.container.CircuitBreaker;
+import org.jboss.cluster.proxy.container.Node;
+
+/**
+ * {@code HealthCheckerTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class HealthCheckerTest extends TestCase {
+
+	private HealthChecker checker;
+	private Node node;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		System.setProperty(Constants.HEALTH_CHECK_FAILURES_NAME, "3");
+		// The connection manager is not initialized, it opens no connection
+		this.checker = new HealthChecker(new ConnectionManager());
+		this.node = new Node();
+		this.node.setHostname("localhost");
+		this.node.setPort(8080);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(Constants.HEALTH_CHECK_FAILURES_NAME);
+	}
+
+	/**
+	 * @param s
+	 * @return the status parsed from the bytes received so far
+	 */
+	private static int parse(String s) {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		buffer.put(s.getBytes(StandardCharsets.US_ASCII));
+		return HealthChecker.parseStatus(buffer);
+	}
+
+	/**
+	 * The status code is read from a complete status line
+	 */
+	public void testStatus() {
+		assertEquals(200, parse("HTTP/1.1 200 OK\r\n"));
+		assertEquals(503, parse("HTTP/1.1 503 Service Unavailable\r\n"));
+		assertEquals(204, parse("HTTP/1.0  204\r\n"));
+		assertEquals(501, parse("HTTP/1.1 501\n"));
+	}
+
+	/**
+	 * A status line which is not received yet in full gives 0
+	 */
+	public void testIncompleteStatus() {
+		assertEquals(0, parse(""));
+		assertEquals(0, parse("HTTP/1.1"));
+		assertEquals(0, parse("HTTP/1.1 "));
+		assertEquals(0, parse("HTTP/1.1 20"));
+		assertEquals(0, parse("HTTP/1.1 200"));
+	}
+
+	/**
+	 * A malformed status line gives -1
+	 */
+	public void testMalformedStatus() {
+		assertEquals(-1, parse("HTTP/1.1\r\n200 OK\r\n"));
+		assertEquals(-1, parse("HTTP/1.1 2x0 OK\r\n"));
+		assertEquals(-1, parse("HTTP/1.1 2000 OK\r\n"));
+	}
+
+	/**
+	 * The node is failed after the configured number of consecutive failed
+	 * checks, and stays unavailable until a check succeeds
+	 */
+	public void testConsecutiveFailures() {
+		HealthChecker.Probe probe = this.checker.new Probe(this.node);
+		CircuitBreaker breaker = this.node.getCircuitBreaker();
+		long now = System.currentTimeMillis();
+
+		probe.report(false);
+		probe.report(false);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(this.node.isAvailable(now));
+
+		probe.report(false);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		// No probe is granted to the live requests after the open time
+		long later = now + 60000L;
+		assertFalse(this.node.isAvailable(later));
+		assertFalse(breaker.tryAcquire(later));
+
+		probe.report(true);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(this.node.isAvailable(System.currentTimeMillis()));
+	}
+
+	/**
+	 * A successful check resets the count of the consecutive failures
+	 */
+	public void testFailuresReset() {
+		HealthChecker.Probe probe = this.checker.new Probe(this.node);
+		probe.report(false);
+		probe.report(false);
+		probe.report(true);
+		probe.report(false);
+		probe.report(false);
+		assertEquals(CircuitBreaker.State.CLOSED, this.node.getCircuitBreaker().getState());
+		probe.report(false);
+		assertEquals(CircuitBreaker.State.OPEN, this.node.getCircuitBreaker().getState());
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+/**
+ * {@code CircuitBreakerTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class CircuitBreakerTest extends TestCase {
+
+	private static final long NOW = 1000000L;
+	private static final long OPEN_TIME = 1000L;
+
+	private CircuitBreaker breaker;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		// 3 failures and 50% of the requests over 10 seconds, 2 probes
+		this.breaker = new CircuitBreaker(3, 50, 10000L, OPEN_TIME, 2);
+	}
+
+	/**
+	 * The breaker opens once both the threshold and the ratio are reached
+	 */
+	public void testOpen() {
+		for (int i = 0; i < 4; i++) {
+			this.breaker.onSuccess(NOW);
+		}
+		assertFalse(this.breaker.onFailure(NOW));
+		assertFalse(this.breaker.onFailure(NOW + 1));
+		assertFalse(this.breaker.onFailure(NOW + 2));
+		assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+		assertTrue(this.breaker.onFailure(NOW + 3));
+		assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+		assertFalse(this.breaker.isAvailable(NOW + 4));
+		assertFalse(this.breaker.tryAcquire(NOW + 4));
+	}
+
+	/**
+	 * The failures out of the rolling window are forgotten
+	 */
+	public void testWindow() {
+		this.breaker.onFailure(NOW);
+		this.breaker.onFailure(NOW);
+		assertFalse(this.breaker.onFailure(NOW + 20000));
+		assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+	}
+
+	/**
+	 * After the open time, a bounded number of probes is granted and the
+	 * breaker closes when all of them succeed
+	 */
+	public void testHalfOpen() {
+		assertTrue(this.breaker.open(NOW));
+		assertFalse(this.breaker.open(NOW));
+		long t = NOW + OPEN_TIME;
+		assertTrue(this.breaker.isAvailable(t));
+		assertTrue(this.breaker.tryAcquire(t));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, this.breaker.getState());
+		assertTrue(this.breaker.tryAcquire(t));
+		assertFalse(this.breaker.tryAcquire(t));
+		assertFalse(this.breaker.isAvailable(t + 1));
+
+		assertFalse(this.breaker.onSuccess(t + 1));
+		assertTrue(this.breaker.onSuccess(t + 2));
+		assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+		assertEquals(t + 2, this.breaker.getClosedSince());
+
+		// The failures which opened the breaker are forgotten
+		assertFalse(this.breaker.onFailure(t + 3));
+		assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+	}
+
+	/**
+	 * A failed probe opens the breaker again
+	 */
+	public void testFailedProbe() {
+		this.breaker.open(NOW);
+		long t = NOW + OPEN_TIME;
+		assertTrue(this.breaker.tryAcquire(t));
+		assertTrue(this.breaker.onFailure(t + 1));
+		assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+		assertFalse(this.breaker.tryAcquire(t + 2));
+		assertTrue(this.breaker.tryAcquire(t + 1 + OPEN_TIME));
+	}
+
+	/**
+	 * A breaker held open gets no probe until it is released, then behaves as
+	 * half-open
+	 */
+	public void testHold() {
+		assertTrue(this.breaker.hold(NOW));
+		long t = NOW + 10 * OPEN_TIME;
+		assertFalse(this.breaker.isAvailable(t));
+		assertFalse(this.breaker.tryAcquire(t));
+		assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+
+		assertTrue(this.breaker.release(t));
+		assertFalse(this.breaker.release(t));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, this.breaker.getState());
+		assertTrue(this.breaker.isAvailable(t));
+		assertTrue(this.breaker.tryAcquire(t));
+		assertTrue(this.breaker.tryAcquire(t));
+		assertFalse(this.breaker.tryAcquire(t));
+		this.breaker.onSuccess(t + 1);
+		assertTrue(this.breaker.onSuccess(t + 1));
+		assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+	}
+
+	/**
+	 * A breaker opened by the traffic is not released by a health check
+	 */
+	public void testReleaseNotHeld() {
+		this.breaker.open(NOW);
+		assertFalse(this.breaker.release(NOW + 1));
+		assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+		assertTrue(this.breaker.tryAcquire(NOW + OPEN_TIME));
+	}
+
+	/**
+	 * The probes which did not complete within the open time are granted
+	 * again
+	 */
+	public void testLostProbes() {
+		this.breaker.open(NOW);
+		long t = NOW + OPEN_TIME;
+		assertTrue(this.breaker.tryAcquire(t));
+		assertTrue(this.breaker.tryAcquire(t));
+		assertFalse(this.breaker.tryAcquire(t + 1));
+		assertTrue(this.breaker.tryAcquire(t + OPEN_TIME));
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code ConsistentHashSelectorTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class ConsistentHashSelectorTest extends TestCase {
+
+	private Node nodes[];
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		System.setProperty(Constants.SLOW_START_NAME, "0");
+		this.nodes = new Node[5];
+		for (int i = 0; i < this.nodes.length; i++) {
+			this.nodes[i] = new Node();
+			this.nodes[i].setJvmRoute("node" + i);
+			this.nodes[i].setHostname("10.0.0." + i);
+			this.nodes[i].setPort(8080);
+			this.nodes[i].setWeight(1);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(Constants.SLOW_START_NAME);
+	}
+
+	/**
+	 * The same key is always mapped to the same node
+	 */
+	public void testStable() {
+		ConsistentHashSelector selector = new ConsistentHashSelector("header:X-User");
+		selector.setNodes(this.nodes);
+		for (int i = 0; i < 100; i++) {
+			Request request = request("/app", "user" + i);
+			Node node = selector.select(request, null);
+			assertNotNull(node);
+			for (int j = 0; j < 5; j++) {
+				assertSame(node, selector.select(request("/other", "user" + i), null));
+			}
+		}
+	}
+
+	/**
+	 * Removing a node only moves the keys it was serving
+	 */
+	public void testMinimalDisruption() {
+		ConsistentHashSelector selector = new ConsistentHashSelector("uri");
+		selector.setNodes(this.nodes);
+		Node before[] = new Node[500];
+		for (int i = 0; i < before.length; i++) {
+			before[i] = selector.select(request("/app/" + i, null), null);
+		}
+		// The same nodes in another order, without the third one
+		Node remaining[] = { this.nodes[4], this.nodes[0], this.nodes[3], this.nodes[1] };
+		selector.setNodes(remaining);
+		int moved = 0;
+		for (int i = 0; i < before.length; i++) {
+			Node node = selector.select(request("/app/" + i, null), null);
+			assertNotSame(this.nodes[2], node);
+			if (before[i] != this.nodes[2]) {
+				assertSame(before[i], node);
+			} else {
+				moved++;
+			}
+		}
+		// Roughly a fifth of the keys
+		assertTrue(moved > 50 && moved < 150);
+	}
+
+	/**
+	 * The keys of an unavailable node are spread over the other nodes
+	 */
+	public void testUnavailable() {
+		ConsistentHashSelector selector = new ConsistentHashSelector("uri");
+		selector.setNodes(this.nodes);
+		this.nodes[1].setNodeDown();
+		for (int i = 0; i < 200; i++) {
+			Node node = selector.select(request("/app/" + i, null), null);
+			assertNotNull(node);
+			assertNotSame(this.nodes[1], node);
+		}
+	}
+
+	/**
+	 * The keys of the node which has just failed for a request go to their
+	 * next node, the other keys do not move
+	 */
+	public void testExcluded() {
+		ConsistentHashSelector selector = new ConsistentHashSelector("uri");
+		selector.setNodes(this.nodes);
+		for (int i = 0; i < 200; i++) {
+			Node node = selector.select(request("/app/" + i, null), null);
+			Node other = selector.select(request("/app/" + i, null), this.nodes[0]);
+			assertNotSame(this.nodes[0], other);
+			if (node != this.nodes[0]) {
+				assertSame(node, other);
+			}
+		}
+	}
+
+	/**
+	 * The query string and the trailing segments are not part of the key
+	 */
+	public void testUriSegments() {
+		ConsistentHashSelector selector = new ConsistentHashSelector("uri:2");
+		selector.setNodes(this.nodes);
+		for (int i = 0; i < 50; i++) {
+			Node node = selector.select(request("/app/" + i, null), null);
+			assertSame(node, selector.select(request("/app/" + i + "/page?x=1", null), null));
+		}
+	}
+
+	/**
+	 * Unknown key definition
+	 */
+	public void testUnknownKey() {
+		try {
+			new ConsistentHashSelector("cookie");
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * @param uri
+	 * @param user
+	 * @return a new request
+	 */
+	private static Request request(String uri, String user) {
+		Request request = new Request();
+		request.requestURI().setString(uri);
+		if (user != null) {
+			request.getMimeHeaders().addValue("X-User").setString(user);
+		}
+		return request;
+	}
+}
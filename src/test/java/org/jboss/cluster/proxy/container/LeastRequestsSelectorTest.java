@@ -0,0 +1,139 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code LeastRequestsSelectorTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class LeastRequestsSelectorTest extends TestCase {
+
+	private LeastRequestsSelector selector;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		System.setProperty(Constants.SLOW_START_NAME, "0");
+		this.selector = new LeastRequestsSelector();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(Constants.SLOW_START_NAME);
+	}
+
+	/**
+	 * With a few nodes, the node with the least requests in flight is selected
+	 */
+	public void testScan() {
+		Node nodes[] = nodes(3);
+		inFlight(nodes[0], 5);
+		inFlight(nodes[1], 2);
+		inFlight(nodes[2], 4);
+		this.selector.setNodes(nodes);
+		assertSame(nodes[1], this.selector.select(new Request(), null));
+
+		// Relatively to the weights
+		nodes[2].setWeight(4);
+		assertSame(nodes[2], this.selector.select(new Request(), null));
+	}
+
+	/**
+	 * With many nodes, the most loaded node is never selected and the idle
+	 * node is preferred
+	 */
+	public void testTwoChoices() {
+		Node nodes[] = nodes(8);
+		for (int i = 0; i < nodes.length; i++) {
+			inFlight(nodes[i], i == 3 ? 0 : (i == 5 ? 100 : 10));
+		}
+		this.selector.setNodes(nodes);
+		Request request = new Request();
+		int idle = 0;
+		for (int i = 0; i < 1000; i++) {
+			Node node = this.selector.select(request, null);
+			assertNotSame(nodes[5], node);
+			if (node == nodes[3]) {
+				idle++;
+			}
+		}
+		// The idle node wins each time it is one of the two choices (1/4)
+		assertTrue(idle > 150);
+	}
+
+	/**
+	 * The unavailable nodes are skipped
+	 */
+	public void testUnavailable() {
+		Node nodes[] = nodes(6);
+		for (int i = 0; i < nodes.length; i++) {
+			if (i != 4) {
+				nodes[i].setNodeDown();
+			}
+		}
+		this.selector.setNodes(nodes);
+		for (int i = 0; i < 100; i++) {
+			assertSame(nodes[4], this.selector.select(new Request(), null));
+		}
+		nodes[4].setNodeDown();
+		assertNull(this.selector.select(new Request(), null));
+	}
+
+	/**
+	 * @param n
+	 * @return <tt>n</tt> new nodes
+	 */
+	private static Node[] nodes(int n) {
+		Node nodes[] = new Node[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = new Node();
+			nodes[i].setJvmRoute("node" + i);
+			nodes[i].setWeight(1);
+		}
+		return nodes;
+	}
+
+	/**
+	 * @param node
+	 * @param n
+	 */
+	private static void inFlight(Node node, int n) {
+		for (int i = 0; i < n; i++) {
+			node.incrementInFlight();
+		}
+	}
+}
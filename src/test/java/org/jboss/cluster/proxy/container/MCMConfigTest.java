@@ -0,0 +1,151 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code MCMConfigTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class MCMConfigTest extends TestCase {
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		System.setProperty(Constants.SLOW_START_NAME, "0");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(Constants.SLOW_START_NAME);
+		System.clearProperty(Constants.BALANCING_MODE_NAME);
+	}
+
+	/**
+	 * The nodes are elected in proportion of their load factor over a cycle of
+	 * the schedule
+	 */
+	public void testSchedule() {
+		MCMConfig conf = new MCMConfig();
+		Node a = node(conf, "a", 30);
+		Node b = node(conf, "b", 10);
+		Node c = node(conf, "c", 0);
+
+		int countA = 0;
+		int countB = 0;
+		for (int i = 0; i < 400; i++) {
+			Node node = conf.getNode();
+			if (node == a) {
+				countA++;
+			} else if (node == b) {
+				countB++;
+			} else {
+				fail("Unexpected node " + node);
+			}
+		}
+		assertEquals(300, countA);
+		assertEquals(100, countB);
+		assertEquals(0, c.getElected());
+	}
+
+	/**
+	 * A new load factor is taken into account at the next update
+	 */
+	public void testUpdate() {
+		MCMConfig conf = new MCMConfig();
+		Node a = node(conf, "a", 50);
+		Node b = node(conf, "b", 50);
+		b.setLoad(100);
+		conf.insertupdate(b);
+
+		int countA = 0;
+		for (int i = 0; i < 300; i++) {
+			if (conf.getNode() == a) {
+				countA++;
+			}
+		}
+		assertEquals(100, countA);
+	}
+
+	/**
+	 * The standby nodes only receive requests when no other node is available
+	 */
+	public void testStandby() {
+		MCMConfig conf = new MCMConfig();
+		Node a = node(conf, "a", 10);
+		Node c = node(conf, "c", 0);
+		for (int i = 0; i < 10; i++) {
+			assertSame(a, conf.getNode());
+		}
+		a.setNodeDown();
+		assertSame(c, conf.getNode());
+		c.setNodeDown();
+		assertNull(conf.getNode());
+	}
+
+	/**
+	 * In LEAST_REQUESTS mode, the standby nodes are skipped even when they
+	 * have no request in flight
+	 */
+	public void testLeastRequestsStandby() {
+		System.setProperty(Constants.BALANCING_MODE_NAME, "LEAST_REQUESTS");
+		MCMConfig conf = new MCMConfig();
+		Node a = node(conf, "a", 10);
+		Node b = node(conf, "b", 10);
+		Node c = node(conf, "c", 0);
+		for (int i = 0; i < 5; i++) {
+			a.incrementInFlight();
+		}
+		b.incrementInFlight();
+		assertSame(b, conf.getNode());
+		a.setNodeDown();
+		b.setNodeDown();
+		assertSame(c, conf.getNode());
+	}
+
+	/**
+	 * @param conf
+	 * @param route
+	 * @param load
+	 * @return a new node added to the configuration
+	 */
+	private static Node node(MCMConfig conf, String route, int load) {
+		Node node = new Node();
+		node.setJvmRoute(route);
+		node.setLoad(load);
+		conf.insertupdate(node);
+		return node;
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code MCMNodeServiceTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class MCMNodeServiceTest extends TestCase {
+
+	private MCMConfig saved;
+	private MCMNodeService service;
+	private Node node1;
+	private Node node2;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		System.setProperty(Constants.SLOW_START_NAME, "0");
+		this.saved = MCMNodeService.conf;
+		MCMConfig conf = new MCMConfig();
+		conf.insertupdate(new Balancer());
+		this.node1 = new Node();
+		this.node1.setJvmRoute("node1");
+		this.node1.setLoad(1);
+		conf.insertupdate(this.node1);
+		// Never elected without a session
+		this.node2 = new Node();
+		this.node2.setJvmRoute("node2");
+		this.node2.setLoad(0);
+		conf.insertupdate(this.node2);
+		MCMNodeService.conf = conf;
+		this.service = new MCMNodeService();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		MCMNodeService.conf = this.saved;
+		System.clearProperty(Constants.SLOW_START_NAME);
+	}
+
+	/**
+	 * The route follows the last '.' of the session cookie
+	 */
+	public void testCookie() {
+		assertSame(this.node2, node("/app", "JSESSIONID=abc.def.node2"));
+		assertSame(this.node2, node("/app", "foo=bar; JSESSIONID=abc.node2; x=y"));
+		assertSame(this.node2, node("/app", "foo=bar,JSESSIONID = abc.node2"));
+		assertSame(this.node2, node("/app", "JSESSIONID=\"abc.node2\" "));
+		assertSame(this.node2, node("/app", "flag; JSESSIONID=abc.node2"));
+	}
+
+	/**
+	 * The cookies having another name or an unknown route are ignored
+	 */
+	public void testCookieIgnored() {
+		assertSame(this.node1, node("/app", "XJSESSIONID=abc.node2"));
+		assertSame(this.node1, node("/app", "jsessionid=abc.node2"));
+		assertSame(this.node1, node("/app", "JSESSIONID=abc.node3"));
+		assertSame(this.node1, node("/app", "JSESSIONID=abc"));
+		assertSame(this.node1, node("/app", "foo=abc.node2"));
+	}
+
+	/**
+	 * All the <tt>Cookie</tt> headers are scanned
+	 */
+	public void testCookieHeaders() {
+		Request request = request("/app");
+		request.getMimeHeaders().addValue("Cookie").setString("foo=bar");
+		request.getMimeHeaders().addValue("Cookie").setString("JSESSIONID=abc.node2");
+		assertSame(this.node2, this.service.getNode(request));
+	}
+
+	/**
+	 * The sticky session path parameter
+	 */
+	public void testPath() {
+		assertSame(this.node2, node("/app/index.jsp;jsessionid=abc.node2", null));
+		assertSame(this.node2, node("/app/index.jsp;jsessionid=abc.node2?x=1", null));
+		assertSame(this.node2, node("/app/index.jsp;foo=1;jsessionid=abc.node2", null));
+		assertSame(this.node2, node("/app;v=1/index.jsp;jsessionid=abc.node2", null));
+		assertSame(this.node2, node("/app;jsessionid=abc.node2/index.jsp", null));
+	}
+
+	/**
+	 * The path parameters of the query string or having another name are
+	 * ignored
+	 */
+	public void testPathIgnored() {
+		assertSame(this.node1, node("/app/index.jsp", null));
+		assertSame(this.node1, node("/app/index.jsp?x=1;jsessionid=abc.node2", null));
+		assertSame(this.node1, node("/app/index.jsp;sessionid=abc.node2", null));
+		assertSame(this.node1, node("/app/index.jsp;jsessionid=abc.node3", null));
+		assertSame(this.node1, node("/app/index.jsp;jsessionid", null));
+	}
+
+	/**
+	 * The cookie takes precedence over the path parameter
+	 */
+	public void testCookieFirst() {
+		Node node3 = new Node();
+		node3.setJvmRoute("node3");
+		node3.setLoad(0);
+		MCMNodeService.conf.insertupdate(node3);
+		assertSame(node3, node("/app;jsessionid=abc.node2", "JSESSIONID=abc.node3"));
+	}
+
+	/**
+	 * The session of an unavailable node goes to another node
+	 */
+	public void testFailover() {
+		this.node2.setNodeDown();
+		assertSame(this.node1, node("/app", "JSESSIONID=abc.node2"));
+	}
+
+	/**
+	 * The node which has just failed is not selected again for the request,
+	 * even for its sessions and before its circuit breaker opens
+	 */
+	public void testFailedNode() {
+		Request request = request("/app");
+		request.getMimeHeaders().addValue("Cookie").setString("JSESSIONID=abc.node2");
+		assertSame(this.node1, this.service.getNode(request, this.node2));
+		assertTrue(this.node2.isAvailable(System.currentTimeMillis()));
+		assertSame(this.node2, this.service.getNode(request));
+		// The standby node takes over
+		assertSame(this.node2, this.service.getNode(request("/app"), this.node1));
+	}
+
+	/**
+	 * @param uri
+	 * @param cookie
+	 * @return the node elected for the request
+	 */
+	private Node node(String uri, String cookie) {
+		Request request = request(uri);
+		if (cookie != null) {
+			request.getMimeHeaders().addValue("Cookie").setString(cookie);
+		}
+		return this.service.getNode(request);
+	}
+
+	/**
+	 * @param uri
+	 * @return a new request
+	 */
+	private static Request request(String uri) {
+		Request request = new Request();
+		request.requestURI().setString(uri);
+		return request;
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code NodeSelectorBenchmark}
+ * <p>
+ * Cost of the selection of a node by the selectors of {@code CLNodeService},
+ * compared with the random selection it used before, e.g.:
+ * </p>
+ * 
+ * <pre>
+ * mvn test-compile
+ * java -cp "target/classes:target/test-classes:target/lib/*" org.openjdk.jmh.Main NodeSelectorBenchmark -t 8
+ * </pre>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class NodeSelectorBenchmark {
+
+	/**
+	 * The number of nodes
+	 */
+	@Param({ "4", "16" })
+	public int nodes;
+
+	/**
+	 * The number of nodes which are down
+	 */
+	@Param({ "0", "2" })
+	public int down;
+
+	private final Request request = new Request();
+	private WeightedRoundRobinSelector roundRobin;
+	private LeastRequestsSelector leastRequests;
+	private LegacyRandomSelector random;
+
+	/**
+	 * Create the nodes and the selectors
+	 */
+	@Setup
+	public void setup() {
+		System.setProperty(Constants.SLOW_START_NAME, "0");
+		Node array[] = new Node[this.nodes];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = new Node();
+			array[i].setJvmRoute("node" + i);
+			array[i].setWeight(1 + i % 3);
+			if (i < this.down) {
+				array[i].setNodeDown();
+			}
+		}
+		this.roundRobin = new WeightedRoundRobinSelector();
+		this.roundRobin.setNodes(array);
+		this.leastRequests = new LeastRequestsSelector();
+		this.leastRequests.setNodes(array);
+		this.random = new LegacyRandomSelector(array, this.nodes - this.down);
+	}
+
+	/**
+	 * @return the selected node
+	 */
+	@Benchmark
+	public Node weightedRoundRobin() {
+		return this.roundRobin.select(this.request, null);
+	}
+
+	/**
+	 * @return the selected node
+	 */
+	@Benchmark
+	public Node leastRequests() {
+		return this.leastRequests.select(this.request, null);
+	}
+
+	/**
+	 * @return the selected node
+	 */
+	@Benchmark
+	public Node legacyRandom() {
+		return this.random.select();
+	}
+
+	/**
+	 * {@code LegacyRandomSelector}
+	 * <p>
+	 * The random selection of {@code CLNodeService} before the selectors: a
+	 * shared {@link Random}, one recursive draw per try and an array of the
+	 * active nodes allocated when all the tries failed.
+	 * </p>
+	 */
+	private static class LegacyRandomSelector {
+
+		private final List<Node> nodes = new ArrayList<Node>();
+		private final Random random = new Random();
+		private final int activeNodes;
+
+		/**
+		 * @param nodes
+		 * @param activeNodes
+		 */
+		LegacyRandomSelector(Node nodes[], int activeNodes) {
+			for (Node node : nodes) {
+				this.nodes.add(node);
+			}
+			this.activeNodes = activeNodes;
+		}
+
+		/**
+		 * @return a node
+		 */
+		Node select() {
+			return ((this.nodes.isEmpty() || this.activeNodes <= 0) ? null : select(0));
+		}
+
+		/**
+		 * @param n
+		 *            the number of tries
+		 * @return a node
+		 */
+		private Node select(int n) {
+			if (n >= this.nodes.size()) {
+				int pos = 0;
+				Node array[] = new Node[this.activeNodes];
+				for (Node nod : this.nodes) {
+					if (nod.isNodeUp()) {
+						array[pos++] = nod;
+					}
+				}
+
+				return (pos > 0 ? array[this.random.nextInt(pos)] : null);
+			} else {
+				int index = this.random.nextInt(this.nodes.size());
+				Node node = this.nodes.get(index);
+				return (node.isNodeUp() ? node : select(n + 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code NodeTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class NodeTest extends TestCase {
+
+	private static final long WINDOW = 30000L;
+	private static final double DELTA = 1e-9;
+
+	/**
+	 * The share grows linearly from the minimum to 1 over the window
+	 */
+	public void testSlowStart() {
+		Node node = new Node();
+		long up = node.getUpSince();
+		assertEquals(Node.SLOW_START_MIN_FACTOR, node.getSlowStartFactor(up, WINDOW), DELTA);
+		assertEquals(Node.SLOW_START_MIN_FACTOR, node.getSlowStartFactor(up - 1, WINDOW), DELTA);
+
+		double half = node.getSlowStartFactor(up + WINDOW / 2, WINDOW);
+		assertEquals(Node.SLOW_START_MIN_FACTOR + (1.0 - Node.SLOW_START_MIN_FACTOR) / 2, half,
+				DELTA);
+
+		double previous = 0;
+		for (long t = up; t <= up + WINDOW; t += WINDOW / 10) {
+			double factor = node.getSlowStartFactor(t, WINDOW);
+			assertTrue(factor > 0 && factor <= 1.0);
+			assertTrue(factor > previous);
+			previous = factor;
+		}
+		assertEquals(1.0, node.getSlowStartFactor(up + WINDOW, WINDOW), DELTA);
+		assertEquals(1.0, node.getSlowStartFactor(up + 10 * WINDOW, WINDOW), DELTA);
+	}
+
+	/**
+	 * A window of 0 disables the slow start
+	 */
+	public void testSlowStartDisabled() {
+		Node node = new Node();
+		assertEquals(1.0, node.getSlowStartFactor(node.getUpSince(), 0), DELTA);
+		assertEquals(1.0, node.getSlowStartFactor(node.getUpSince(), -1), DELTA);
+	}
+
+	/**
+	 * The slow start restarts when the circuit breaker closes and at the end
+	 * of an ejection
+	 */
+	public void testSlowStartRecovery() {
+		Node node = new Node();
+		long t = node.getUpSince() + 10 * WINDOW;
+		assertEquals(1.0, node.getSlowStartFactor(t, WINDOW), DELTA);
+
+		node.eject(t + 1000);
+		assertEquals(Node.SLOW_START_MIN_FACTOR, node.getSlowStartFactor(t + 1000, WINDOW), DELTA);
+		assertEquals(1.0, node.getSlowStartFactor(t + 1000 + WINDOW, WINDOW), DELTA);
+
+		t += 10 * WINDOW;
+		CircuitBreaker breaker = node.getCircuitBreaker();
+		assertTrue(breaker.open(t));
+		long closed = t + Constants.DEFAULT_BREAKER_OPEN_TIME;
+		assertTrue(breaker.tryAcquire(closed));
+		boolean c = false;
+		for (int i = 0; i < Constants.DEFAULT_BREAKER_PROBES; i++) {
+			c = breaker.onSuccess(closed);
+		}
+		assertTrue(c);
+		assertEquals(closed, breaker.getClosedSince());
+		assertEquals(Node.SLOW_START_MIN_FACTOR, node.getSlowStartFactor(closed, WINDOW), DELTA);
+		assertEquals(1.0, node.getSlowStartFactor(closed + WINDOW, WINDOW), DELTA);
+	}
+}
@@ -0,0 +1,234 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code OutlierDetectorTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class OutlierDetectorTest extends TestCase {
+
+	private static final int REQUESTS = 10;
+	private static final long EJECTION_TIME = 30000L;
+
+	private long now;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		System.setProperty(Constants.OUTLIER_INTERVAL_NAME, "10000");
+		System.setProperty(Constants.OUTLIER_MIN_REQUESTS_NAME, String.valueOf(REQUESTS));
+		System.setProperty(Constants.OUTLIER_ERROR_RATIO_NAME, "50");
+		System.setProperty(Constants.OUTLIER_LATENCY_FACTOR_NAME, "10");
+		System.setProperty(Constants.OUTLIER_EJECTION_TIME_NAME, String.valueOf(EJECTION_TIME));
+		System.setProperty(Constants.OUTLIER_MAX_EJECTION_NAME, "50");
+		this.now = System.currentTimeMillis();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(Constants.OUTLIER_INTERVAL_NAME);
+		System.clearProperty(Constants.OUTLIER_MIN_REQUESTS_NAME);
+		System.clearProperty(Constants.OUTLIER_ERROR_RATIO_NAME);
+		System.clearProperty(Constants.OUTLIER_LATENCY_FACTOR_NAME);
+		System.clearProperty(Constants.OUTLIER_EJECTION_TIME_NAME);
+		System.clearProperty(Constants.OUTLIER_MAX_EJECTION_NAME);
+	}
+
+	/**
+	 * @param n
+	 * @return n nodes, created once the properties are set
+	 */
+	private static Node[] nodes(int n) {
+		Node nodes[] = new Node[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = new Node();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Record the responses of the node over the window
+	 * 
+	 * @param node
+	 * @param errors
+	 *            the number of responses with status 500
+	 * @param micros
+	 *            the time to first byte of every response
+	 */
+	private void record(Node node, int errors, long micros) {
+		for (int i = 0; i < REQUESTS; i++) {
+			node.getStats().onResponse(this.now, i < errors ? 500 : 200, micros);
+		}
+	}
+
+	/**
+	 * A node whose ratio of errors reaches the threshold is ejected
+	 */
+	public void testErrorRatio() {
+		Node nodes[] = nodes(4);
+		record(nodes[0], REQUESTS / 2, 1000);
+		for (int i = 1; i < nodes.length; i++) {
+			record(nodes[i], 1, 1000);
+		}
+		new OutlierDetector().detect(nodes, this.now);
+
+		assertTrue(nodes[0].isEjected(this.now));
+		assertFalse(nodes[0].isAvailable(this.now));
+		assertEquals(1, nodes[0].getEjections());
+		assertTrue(nodes[0].isAvailable(this.now + EJECTION_TIME));
+		for (int i = 1; i < nodes.length; i++) {
+			assertFalse(nodes[i].isEjected(this.now));
+		}
+	}
+
+	/**
+	 * The resets count as failures
+	 */
+	public void testResets() {
+		Node nodes[] = nodes(4);
+		for (Node node : nodes) {
+			record(node, 0, 1000);
+		}
+		for (int i = 0; i < REQUESTS; i++) {
+			nodes[0].getStats().onReset(this.now);
+		}
+		new OutlierDetector().detect(nodes, this.now);
+
+		assertTrue(nodes[0].isEjected(this.now));
+		assertFalse(nodes[1].isEjected(this.now));
+	}
+
+	/**
+	 * A node whose mean time to first byte is far above the median is
+	 * ejected
+	 */
+	public void testLatency() {
+		Node nodes[] = nodes(4);
+		record(nodes[0], 0, 100000);
+		record(nodes[1], 0, 1000);
+		record(nodes[2], 0, 2000);
+		record(nodes[3], 0, 9000);
+		new OutlierDetector().detect(nodes, this.now);
+
+		assertTrue(nodes[0].isEjected(this.now));
+		for (int i = 1; i < nodes.length; i++) {
+			assertFalse(nodes[i].isEjected(this.now));
+		}
+	}
+
+	/**
+	 * The nodes without enough requests are never ejected
+	 */
+	public void testMinRequests() {
+		Node nodes[] = nodes(4);
+		for (int i = 0; i < REQUESTS - 1; i++) {
+			nodes[0].getStats().onResponse(this.now, 500, 1000);
+		}
+		new OutlierDetector().detect(nodes, this.now);
+
+		assertFalse(nodes[0].isEjected(this.now));
+	}
+
+	/**
+	 * The ejections are capped relatively to the available nodes
+	 */
+	public void testCap() {
+		Node nodes[] = nodes(4);
+		for (Node node : nodes) {
+			record(node, REQUESTS, 1000);
+		}
+		new OutlierDetector().detect(nodes, this.now);
+
+		int ejected = 0;
+		for (Node node : nodes) {
+			if (node.isEjected(this.now)) {
+				ejected++;
+			}
+		}
+		assertEquals(2, ejected);
+	}
+
+	/**
+	 * The nodes already unavailable count against the cap
+	 */
+	public void testCapUnavailable() {
+		Node nodes[] = nodes(4);
+		for (Node node : nodes) {
+			record(node, 0, 1000);
+		}
+		record(nodes[0], REQUESTS, 1000);
+		nodes[3].setNodeDown();
+		new OutlierDetector().detect(nodes, this.now);
+
+		// 50% of the 3 available nodes leaves room for a single unavailable
+		// node, which is the node down
+		assertFalse(nodes[0].isEjected(this.now));
+
+		nodes = nodes(6);
+		for (Node node : nodes) {
+			record(node, REQUESTS, 1000);
+		}
+		nodes[5].getCircuitBreaker().open(this.now);
+		new OutlierDetector().detect(nodes, this.now);
+
+		int ejected = 0;
+		for (Node node : nodes) {
+			if (node.isEjected(this.now)) {
+				ejected++;
+			}
+		}
+		assertEquals(1, ejected);
+		assertFalse(nodes[5].isEjected(this.now));
+	}
+
+	/**
+	 * The detection runs once per interval
+	 */
+	public void testInterval() {
+		Node nodes[] = nodes(4);
+		OutlierDetector detector = new OutlierDetector();
+		for (Node node : nodes) {
+			record(node, 0, 1000);
+		}
+		detector.detect(nodes, this.now);
+
+		record(nodes[0], REQUESTS, 1000);
+		record(nodes[0], REQUESTS, 1000);
+		detector.detect(nodes, this.now + 1);
+		assertFalse(nodes[0].isEjected(this.now + 1));
+	}
+}
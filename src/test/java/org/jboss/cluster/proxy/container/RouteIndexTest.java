@@ -0,0 +1,97 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * {@code RouteIndexTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class RouteIndexTest extends TestCase {
+
+	private RouteIndex<String> index;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		Map<String, String> entries = new HashMap<String, String>();
+		for (int i = 0; i < 100; i++) {
+			entries.put("node" + i, "value" + i);
+		}
+		entries.put("", "empty");
+		this.index = new RouteIndex<String>(entries);
+	}
+
+	/**
+	 * Lookup by string
+	 */
+	public void testGetString() {
+		for (int i = 0; i < 100; i++) {
+			assertEquals("value" + i, this.index.get("node" + i));
+		}
+		assertEquals("empty", this.index.get(""));
+		assertNull(this.index.get("node100"));
+		assertNull(this.index.get("Node1"));
+		assertNull(this.index.get(null));
+	}
+
+	/**
+	 * Lookup by a range of bytes
+	 */
+	public void testGetBytes() {
+		byte b[] = "JSESSIONID=abc.node42;".getBytes();
+		assertEquals("value42", this.index.get(b, 15, 6));
+		assertEquals("value4", this.index.get(b, 15, 5));
+		assertNull(this.index.get(b, 14, 7));
+		assertEquals("empty", this.index.get(b, 0, 0));
+	}
+
+	/**
+	 * Lookup ignoring the case of the bytes
+	 */
+	public void testGetIgnoreCase() {
+		byte b[] = "Host: NODE7.example".getBytes();
+		assertEquals("value7", this.index.getIgnoreCase(b, 6, 5));
+		assertNull(this.index.get(b, 6, 5));
+		assertNull(this.index.getIgnoreCase(b, 6, 13));
+	}
+
+	/**
+	 * An empty index maps nothing
+	 */
+	public void testEmpty() {
+		RouteIndex<String> empty = new RouteIndex<String>(new HashMap<String, String>());
+		assertTrue(empty.isEmpty());
+		assertFalse(this.index.isEmpty());
+		assertNull(empty.get("node1"));
+		assertNull(empty.get(new byte[] { 'a' }, 0, 1));
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code StickySessionBenchmark}
+ * <p>
+ * Cost of the election of a node by {@code MCMNodeService} for the requests
+ * without session, with the sticky session path parameter enabled and
+ * disabled, and for the requests carrying the path parameter, e.g.:
+ * </p>
+ * 
+ * <pre>
+ * mvn test-compile
+ * java -cp "target/classes:target/test-classes:target/lib/*" org.openjdk.jmh.Main StickySessionBenchmark
+ * </pre>
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StickySessionBenchmark {
+
+	/**
+	 * Whether the balancer has a sticky session path parameter
+	 */
+	@Param({ "true", "false" })
+	public boolean path;
+
+	private MCMConfig saved;
+	private MCMNodeService service;
+	private Request plain;
+	private Request session;
+
+	/**
+	 * Create the configuration and the requests
+	 */
+	@Setup
+	public void setup() {
+		System.setProperty(Constants.SLOW_START_NAME, "0");
+		MCMConfig conf = new MCMConfig();
+		Balancer balancer = new Balancer();
+		if (!this.path) {
+			balancer.setStickySessionPath(null);
+		}
+		conf.insertupdate(balancer);
+		for (int i = 0; i < 4; i++) {
+			Node node = new Node();
+			node.setJvmRoute("node" + i);
+			node.setLoad(1);
+			conf.insertupdate(node);
+		}
+		this.saved = MCMNodeService.conf;
+		MCMNodeService.conf = conf;
+		this.service = new MCMNodeService();
+		this.plain = request("/shop/catalog/items/index.jsp?category=books&page=2");
+		this.session = request("/shop/catalog/items/index.jsp;jsessionid=F3A1C2B4D5E6.node2?page=2");
+	}
+
+	/**
+	 * Restore the configuration
+	 */
+	@TearDown
+	public void tearDown() {
+		MCMNodeService.conf = this.saved;
+	}
+
+	/**
+	 * @return the node elected for a request without session
+	 */
+	@Benchmark
+	public Node noSession() {
+		return this.service.getNode(this.plain);
+	}
+
+	/**
+	 * @return the node elected for a request carrying the path parameter
+	 */
+	@Benchmark
+	public Node pathSession() {
+		return this.service.getNode(this.session);
+	}
+
+	/**
+	 * @param uri
+	 * @return a new request having the raw URI in bytes, as parsed
+	 */
+	private static Request request(String uri) {
+		Request request = new Request();
+		byte b[] = uri.getBytes();
+		request.requestURI().setBytes(b, 0, b.length);
+		return request;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import junit.framework.TestCase;
+
+import org.apache.coyote.Request;
+import org.jboss.cluster.proxy.Constants;
+
+/**
+ * {@code WeightedRoundRobinSelectorTest}
+ * 
+ * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
+ */
+public class WeightedRoundRobinSelectorTest extends TestCase {
+
+	private WeightedRoundRobinSelector selector;
+	private Node nodes[];
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		System.setProperty(Constants.SLOW_START_NAME, "0");
+		this.selector = new WeightedRoundRobinSelector();
+		this.nodes = new Node[3];
+		int weights[] = { 50, 20, 10 };
+		for (int i = 0; i < this.nodes.length; i++) {
+			this.nodes[i] = new Node();
+			this.nodes[i].setJvmRoute("node" + i);
+			this.nodes[i].setWeight(weights[i]);
+		}
+		this.selector.setNodes(this.nodes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(Constants.SLOW_START_NAME);
+	}
+
+	/**
+	 * Each node is selected in proportion of its weight over a cycle
+	 */
+	public void testDistribution() {
+		Request request = new Request();
+		int counts[] = count(request, 8 * 100);
+		assertEquals(500, counts[0]);
+		assertEquals(200, counts[1]);
+		assertEquals(100, counts[2]);
+	}
+
+	/**
+	 * The sequence is smooth, the heaviest node is never selected more than
+	 * twice in a row
+	 */
+	public void testSmooth() {
+		Request request = new Request();
+		int run = 0;
+		for (int i = 0; i < 8; i++) {
+			run = this.selector.select(request, null) == this.nodes[0] ? run + 1 : 0;
+			assertTrue(run <= 2);
+		}
+	}
+
+	/**
+	 * The unavailable nodes are skipped
+	 */
+	public void testUnavailable() {
+		Request request = new Request();
+		this.nodes[0].setNodeDown();
+		this.nodes[2].eject(System.currentTimeMillis() + 60000);
+		for (int i = 0; i < 16; i++) {
+			assertSame(this.nodes[1], this.selector.select(request, null));
+		}
+		this.nodes[1].setNodeDown();
+		assertNull(this.selector.select(request, null));
+	}
+
+	/**
+	 * The node which has just failed for the request is skipped
+	 */
+	public void testExcluded() {
+		Request request = new Request();
+		for (int i = 0; i < 16; i++) {
+			assertNotSame(this.nodes[0], this.selector.select(request, this.nodes[0]));
+		}
+		this.nodes[1].setNodeDown();
+		this.nodes[2].setNodeDown();
+		assertNull(this.selector.select(request, this.nodes[0]));
+	}
+
+	/**
+	 * No nodes, no selection
+	 */
+	public void testEmpty() {
+		this.selector.setNodes(new Node[0]);
+		assertNull(this.selector.select(new Request(), null));
+	}
+
+	/**
+	 * @param request
+	 * @param n
+	 * @return the number of times each node was selected over <tt>n</tt>
+	 *         selections
+	 */
+	private int[] count(Request request, int n) {
+		int counts[] = new int[this.nodes.length];
+		for (int i = 0; i < n; i++) {
+			Node node = this.selector.select(request, null);
+			for (int j = 0; j < this.nodes.length; j++) {
+				if (node == this.nodes[j]) {
+					counts[j]++;
+				}
+			}
+		}
+		return counts;
+	}
+}